@@ -0,0 +1,48 @@
+package Kona;
+
+// Kona source for the benchmarks, made the same way every time: a class, a template and a few
+// statements, over and over with the names numbered, up to the size asked for. It parses without
+// errors, so the benchmarks measure the compiler and not its error recovery.
+class Generated {
+    static String program(int size) {
+        StringBuilder source = new StringBuilder(size + 1024);
+        for (int i = 0; source.length() < size; i++) {
+            source.append("""
+                    #[ block
+                       comment ]#
+                    mut class Car%1$d ext Auto of Tmpl, Other
+                       req A, B
+                       wheel,
+                       priv mut axle,
+                       mut mirror
+                       override priv mut fun drive: one, two
+                          val number = one
+                          return wheel + mirror * 3.14 - -x / !y
+                       fun velocity: speed
+                          while speed > 0
+                             let speed = speed - 1
+                          for items each item, i
+                             echo item
+                          return speed * 4
+
+                    template Saturn%1$d ext Other
+                       def axle,
+                       wheel
+                       fun add: apple, banana
+                          return apple
+                       def fun mult: left, right
+                          return left * right
+
+                    val jetta%1$d = Car%1$d { wheel -> "expensive", axle -> 12345678901, extension -> Car%1$d { x -> 1 } }
+                    let b = c
+                    a.b = c = d
+                    echo a || b && c == d != e < f <= g > h >= i
+                    echo "multi
+                    line string %1$d"
+
+                    """.formatted(i));
+        }
+
+        return source.toString();
+    }
+}
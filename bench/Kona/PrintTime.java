@@ -0,0 +1,26 @@
+package Kona;
+
+import java.util.concurrent.ForkJoinPool;
+
+// How long AstPrinter takes over the tree of a generated source, the best of 30 prints on one
+// thread. Takes the size of the source in bytes, 1.1 MB if none is given.
+class PrintTime {
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_100_000;
+        String source = Generated.program(size);
+        CompilationSession session = new CompilationSession(null, System.err, new ForkJoinPool(1), Diagnostics.LIMIT, Parser.MAX_DEPTH, null);
+        Stmt tree = new Parser(new Scanner(source, session).scanTokens(), session).parse();
+        if (session.hadError()) throw new IllegalStateException("The generated source doesn't parse.");
+        int nodes = AstArena.of(tree).size();
+
+        long best = Long.MAX_VALUE;
+        int length = 0;
+        for (int round = 0; round < 30; round++) {
+            long start = System.nanoTime();
+            length += new AstPrinter().print(tree).length();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        System.out.printf("%d nodes, printed in %.1f ms at best (%d chars)%n", nodes, best / 1e6, length / 30);
+    }
+}
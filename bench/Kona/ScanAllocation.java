@@ -0,0 +1,43 @@
+package Kona;
+
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// How many bytes scanning allocates per byte of source, for each way a source can be scanned: all
+// in memory, streamed from a reader, and as UTF-8 bytes. The numbers are from the last of ten
+// rounds, after the JIT has settled. Takes the size of the generated source in bytes, 1.4 MB if
+// none is given.
+class ScanAllocation {
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_400_000;
+        String source = Generated.program(size);
+        ByteBuffer bytes = ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8));
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        double megabytes = source.length() / 1048576.0;
+
+        double in_memory = 0;
+        double streamed = 0;
+        double utf8 = 0;
+        for (int round = 0; round < 10; round++) {
+            CompilationSession session = new CompilationSession(null, System.err);
+            long before = threads.getCurrentThreadAllocatedBytes();
+            new Scanner(source, session).scanTokens();
+            long after_memory = threads.getCurrentThreadAllocatedBytes();
+            new Scanner(new StringReader(source)).scanTokens();
+            long after_streamed = threads.getCurrentThreadAllocatedBytes();
+            new ByteScanner(bytes, session).scanTokens();
+            long after_utf8 = threads.getCurrentThreadAllocatedBytes();
+
+            in_memory = (after_memory - before) / 1048576.0 / megabytes;
+            streamed = (after_streamed - after_memory) / 1048576.0 / megabytes;
+            utf8 = (after_utf8 - after_streamed) / 1048576.0 / megabytes;
+        }
+
+        System.out.printf("%.1f MB of source%n", megabytes);
+        System.out.printf("Scanner(String)   %5.1f MB/MB%n", in_memory);
+        System.out.printf("streamed Scanner  %5.1f MB/MB%n", streamed);
+        System.out.printf("ByteScanner       %5.1f MB/MB%n", utf8);
+    }
+}
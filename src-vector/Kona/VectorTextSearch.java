@@ -0,0 +1,63 @@
+package Kona;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// TextSearch with the incubating Vector API, which compares 16 to 64 bytes at a time depending on
+// the CPU. Only loaded by TextSearch when the module is there; the tail shorter than a vector is
+// left to the scalar loops. Compiled apart from the rest of the compiler, against its classes.
+class VectorTextSearch extends TextSearch {
+    private static final VectorSpecies<Short> CHARS = ShortVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+
+    @Override
+    int plainEnd(char[] text, int from, int to, char a, char b) {
+        int i = from;
+        for (int bound = to - CHARS.length(); i <= bound; i += CHARS.length()) {
+            ShortVector chars = ShortVector.fromCharArray(CHARS, text, i);
+            VectorMask<Short> stop = chars.eq((short) a).or(chars.eq((short) b)).or(chars.eq((short) '\n'));
+            if (stop.anyTrue()) return i + stop.firstTrue();
+        }
+
+        return super.plainEnd(text, i, to, a, b);
+    }
+
+    @Override
+    int plainEnd(byte[] text, int from, int to, byte a, byte b) {
+        int i = from;
+        for (int bound = to - BYTES.length(); i <= bound; i += BYTES.length()) {
+            ByteVector bytes = ByteVector.fromArray(BYTES, text, i);
+            // bytes of a multi-byte sequence are all negative
+            VectorMask<Byte> stop = bytes.eq(a).or(bytes.eq(b)).or(bytes.eq((byte) '\n'))
+                    .or(bytes.compare(VectorOperators.LT, (byte) 0));
+            if (stop.anyTrue()) return i + stop.firstTrue();
+        }
+
+        return super.plainEnd(text, i, to, a, b);
+    }
+
+    @Override
+    int runEnd(char[] text, int from, int to, char c) {
+        int i = from;
+        for (int bound = to - CHARS.length(); i <= bound; i += CHARS.length()) {
+            VectorMask<Short> stop = ShortVector.fromCharArray(CHARS, text, i).compare(VectorOperators.NE, (short) c);
+            if (stop.anyTrue()) return i + stop.firstTrue();
+        }
+
+        return super.runEnd(text, i, to, c);
+    }
+
+    @Override
+    int runEnd(byte[] text, int from, int to, byte c) {
+        int i = from;
+        for (int bound = to - BYTES.length(); i <= bound; i += BYTES.length()) {
+            VectorMask<Byte> stop = ByteVector.fromArray(BYTES, text, i).compare(VectorOperators.NE, c);
+            if (stop.anyTrue()) return i + stop.firstTrue();
+        }
+
+        return super.runEnd(text, i, to, c);
+    }
+}
@@ -0,0 +1,888 @@
+package Kona;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// A syntax tree flattened into parallel arrays, a node being an index into them. Each node has a
+// kind, a token, its first child and its next sibling, so a whole program takes a few arrays
+// instead of an object, a list and a wrapper per node.
+//
+// Every field of an Expr or Stmt becomes a child in the order of its constructor, a missing one a
+// NULL node and a list a LIST node, except for the first token field, which is the node's own
+// token. Nodes are added in pre-order, so a subtree is the nodes from its root up to the next
+// sibling of the root or of one of its ancestors.
+//
+// An arena made over the TokenBuffer a tree was parsed from keeps the tokens of its nodes as their
+// indexes in the buffer, and makes a Token only when one is asked for. Parser.parseFlat adds each
+// top-level declaration as soon as it's parsed, so a program is never held as objects whole.
+class AstArena {
+    enum Kind {
+        NULL, TOKEN, LIST, STRING,
+        // Expr
+        ASSIGN, BINARY, CAST, TYPE, CALL, ARGS, GET, INSTANCE, INSTANCE_FIELDS, INSTANCE_FIELD,
+        GROUPING, LITERAL, FLOAT_LITERAL, LOGICAL, SET, SUPER, SELF, UNARY, VARIABLE,
+        // Stmt
+        DECLARATIONS, BLOCK, TEMPLATE, TEMPLATE_FIELDS, TEMPLATE_FIELD, TEMPLATE_METHODS,
+        TEMPLATE_METHOD, CLASS, REQUIRE, TEMPLATES, FIELDS, FIELD, METHODS, METHOD, EXPRESSION,
+        FUNCTION, PARAMS, IF, ELSE_IFS, ELSE_IF, PRINT, RETURN, VAL, MUT, LET, WHILE, FOR
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+    static final int NONE = -1;
+
+    private byte[] kinds;
+    private int[] tokens;
+    private int[] first_children;
+    private int[] next_siblings;
+    private int count = 0;
+
+    // The token of a node is its index in the buffer, or for a token that isn't in one -2 minus
+    // its index in token_table. A literal's first child is where its value is in numbers, it has no
+    // use for it otherwise, and a STRING node's token is where its string is in strings.
+    private final TokenBuffer buffer;
+    private Token[] token_table = new Token[16];
+    private int token_count = 0;
+    private long[] numbers = new long[16];
+    private int number_count = 0;
+    private final List<String> strings = new ArrayList<>();
+
+    private final Flattener flattener = new Flattener();
+
+    AstArena() {
+        this(null, 1024);
+    }
+
+    // over the tokens the tree is parsed from, which must not change while the arena is used
+    AstArena(TokenBuffer buffer, int capacity) {
+        this.buffer = buffer;
+        kinds = new byte[capacity];
+        tokens = new int[capacity];
+        first_children = new int[capacity];
+        next_siblings = new int[capacity];
+    }
+
+    static AstArena of(Stmt root) {
+        AstArena arena = new AstArena();
+        arena.add(root);
+        return arena;
+    }
+
+    int size() {
+        return count;
+    }
+
+    Kind kind(int node) {
+        return KINDS[kinds[node]];
+    }
+
+    Token token(int node) {
+        int token = tokens[node];
+        if (token == NONE) return null;
+        return token >= 0 ? buffer.token(token) : token_table[-2 - token];
+    }
+
+    int firstChild(int node) {
+        return kinds[node] == Kind.LITERAL.ordinal() || kinds[node] == Kind.FLOAT_LITERAL.ordinal() ? NONE : first_children[node];
+    }
+
+    int nextSibling(int node) {
+        return next_siblings[node];
+    }
+
+    // the value of a number literal, which is a double if its kind is FLOAT_LITERAL
+    long longValue(int node) {
+        return numbers[first_children[node]];
+    }
+
+    double doubleValue(int node) {
+        return Double.longBitsToDouble(numbers[first_children[node]]);
+    }
+
+    String string(int node) {
+        return strings.get(tokens[node]);
+    }
+
+    int child(int node, int index) {
+        int child = firstChild(node);
+        for (int i = 0; i < index && child != NONE; i++) {
+            child = next_siblings[child];
+        }
+
+        return child;
+    }
+
+    // Walks the arena from a node down and along its children, keeping the way back up on a
+    // stack of its own.
+    class Cursor {
+        private int node;
+        private int[] parents = new int[16];
+        private int depth = 0;
+
+        Cursor(int node) {
+            this.node = node;
+        }
+
+        int node() {
+            return node;
+        }
+
+        Kind kind() {
+            return AstArena.this.kind(node);
+        }
+
+        Token token() {
+            return AstArena.this.token(node);
+        }
+
+        int depth() {
+            return depth;
+        }
+
+        boolean firstChild() {
+            int child = AstArena.this.firstChild(node);
+            if (child == NONE) return false;
+
+            if (depth == parents.length) parents = Arrays.copyOf(parents, depth * 2);
+            parents[depth++] = node;
+            node = child;
+            return true;
+        }
+
+        boolean nextSibling() {
+            if (depth == 0 || next_siblings[node] == NONE) return false;
+            node = next_siblings[node];
+            return true;
+        }
+
+        boolean parent() {
+            if (depth == 0) return false;
+            node = parents[--depth];
+            return true;
+        }
+
+        // the next node in pre-order below where the cursor started, false after the last one
+        boolean next() {
+            if (firstChild()) return true;
+
+            while (depth > 0) {
+                if (nextSibling()) return true;
+                parent();
+            }
+
+            return false;
+        }
+    }
+
+    Cursor cursor(int node) {
+        return new Cursor(node);
+    }
+
+    // writing and reading, for the parse cache. Children and siblings are written as how far
+    // they are from their node, tokens with their lexemes, or their names for identifiers, in the
+    // order of their nodes whether they are in a buffer or not.
+
+    void write(ParseCache.Output out) {
+        out.writeVarint(count);
+        int written = 0;
+        for (int i = 0; i < count; i++) {
+            out.writeByte(kinds[i]);
+            boolean has_token = kinds[i] != Kind.STRING.ordinal() && tokens[i] != NONE;
+            out.writeVarint((has_token ? written++ : tokens[i]) + 1);
+            writeLink(out, i, first_children[i]);
+            writeLink(out, i, next_siblings[i]);
+        }
+
+        out.writeVarint(written);
+        for (int i = 0; i < count; i++) {
+            if (kinds[i] == Kind.STRING.ordinal() || tokens[i] == NONE) continue;
+
+            Token token = token(i);
+            out.writeByte(token.type.ordinal());
+            if (token.symbol != -1) {
+                out.writeByte(1);
+                out.writeSymbol(token.symbol);
+            } else {
+                out.writeByte(0);
+                out.writeString(token.lexeme());
+            }
+            out.writeVarint(token.line);
+            out.writeVarint(token.column);
+            out.writeVarint(token.length);
+        }
+
+        out.writeVarint(number_count);
+        for (int i = 0; i < number_count; i++) out.writeLong(numbers[i]);
+
+        out.writeVarint(strings.size());
+        for (String string : strings) out.writeString(string);
+    }
+
+    // a child or sibling, or for a literal where its value is, as the distance from the node
+    // moved away from 0, which is none
+    private static void writeLink(ParseCache.Output out, int node, int link) {
+        if (link == NONE) {
+            out.writeSigned(0);
+        } else {
+            int distance = link - node;
+            out.writeSigned(distance >= 0 ? distance + 1 : distance);
+        }
+    }
+
+    private static int readLink(ParseCache.Input in, int node) {
+        int distance = in.readSigned();
+        if (distance == 0) return NONE;
+        return node + (distance > 0 ? distance - 1 : distance);
+    }
+
+    static AstArena read(ParseCache.Input in) {
+        int count = in.readVarint();
+        AstArena arena = new AstArena(null, Math.max(count, 1));
+        for (int i = 0; i < count; i++) {
+            arena.kinds[i] = (byte) KINDS[in.readByte()].ordinal();
+            int token = in.readVarint() - 1;
+            arena.tokens[i] = arena.kinds[i] == Kind.STRING.ordinal() || token == NONE ? token : -2 - token;
+            arena.first_children[i] = readLink(in, i);
+            arena.next_siblings[i] = readLink(in, i);
+        }
+        arena.count = count;
+
+        arena.token_count = in.readVarint();
+        arena.token_table = new Token[Math.max(arena.token_count, 1)];
+        for (int i = 0; i < arena.token_count; i++) {
+            TokenType type = TOKEN_TYPES[in.readByte()];
+            int symbol = in.readByte() != 0 ? in.readSymbol() : -1;
+            String lexeme = symbol != -1 ? in.symbols.name(symbol) : in.readString();
+            int line = in.readVarint();
+            int column = in.readVarint();
+            int length = in.readVarint();
+            arena.token_table[i] = new Token(type, lexeme, line, column, length, symbol);
+        }
+
+        arena.number_count = in.readVarint();
+        arena.numbers = new long[Math.max(arena.number_count, 1)];
+        for (int i = 0; i < arena.number_count; i++) arena.numbers[i] = in.readLong();
+
+        int string_count = in.readVarint();
+        for (int i = 0; i < string_count; i++) arena.strings.add(in.readString());
+        return arena;
+    }
+
+    // The statement again with its tokens "shift" places on in the buffer and "lines" lines down,
+    // for a tree kept over an edit that moved its tokens.
+    static Stmt moved(Stmt stmt, int shift, int lines) {
+        AstArena arena = new AstArena(null, 256);
+        arena.add(stmt);
+        for (int i = 0; i < arena.token_count; i++) arena.token_table[i] = arena.token_table[i].moved(shift, lines);
+
+        return arena.stmt(0);
+    }
+
+    // adding
+
+    int add(Stmt stmt) {
+        return addTree(stmt);
+    }
+
+    int add(Expr expr) {
+        return addTree(expr);
+    }
+
+    // What is left to add, last first: nodes and their fields, lists and where an open node ends.
+    // The flattener begins a node and pushes its children, so no node is added by a call for its
+    // parent and a tree of any depth is added on this stack instead of the thread's.
+    private static final Object END = new Object();
+    private Object[] work = new Object[16];
+    private int work_size = 0;
+
+    private int addTree(Object root) {
+        int node = count;
+        push(root);
+        while (work_size > 0) {
+            Object item = work[--work_size];
+            work[work_size] = null;
+            if (item == END) {
+                end();
+            } else if (item == null) {
+                leaf(Kind.NULL, null);
+            } else if (item instanceof Expr) {
+                ((Expr)item).accept(flattener);
+            } else if (item instanceof Stmt) {
+                ((Stmt)item).accept(flattener);
+            } else if (item instanceof Token) {
+                leaf(Kind.TOKEN, (Token)item);
+            } else if (item instanceof String) {
+                string((String)item);
+            } else {
+                begin(Kind.LIST, null);
+                children((List<?>)item);
+            }
+        }
+
+        return node;
+    }
+
+    private void push(Object item) {
+        if (work_size == work.length) work = Arrays.copyOf(work, work_size * 2);
+        work[work_size++] = item;
+    }
+
+    // pushes the children of the node just begun, and its end after them
+    private void children(List<?> children) {
+        push(END);
+        for (int i = children.size() - 1; i >= 0; i--) push(children.get(i));
+    }
+
+    private void node(Kind kind, Token token, Object... children) {
+        begin(kind, token);
+        children(Arrays.asList(children));
+    }
+
+    // Starts the Declarations of a parse: the nodes added until endDeclarations are its top-level
+    // declarations.
+    void beginDeclarations() {
+        begin(Kind.DECLARATIONS, null);
+        begin(Kind.LIST, null);
+    }
+
+    void endDeclarations() {
+        end();
+        end();
+    }
+
+    // Adds the top-level declarations of another arena, begun the same way over the same buffer,
+    // after the ones added so far. Its nodes are copied over, moved past the ones here.
+    void addDeclarations(AstArena other) {
+        int first = other.first_children[1];
+        if (first == NONE) return;
+
+        // node i of other is base + i here, the Declarations and its list aren't copied
+        int base = count - 2;
+        int size = count + other.count - 2;
+        if (size > kinds.length) grow(size);
+
+        for (int i = 2; i < other.count; i++) {
+            int node = base + i;
+            byte kind = other.kinds[i];
+            int token = other.tokens[i];
+            int child = other.first_children[i];
+            kinds[node] = kind;
+            if (kind == Kind.STRING.ordinal()) {
+                tokens[node] = token + strings.size();
+            } else {
+                tokens[node] = token < NONE ? token - token_count : token;
+            }
+            if (kind == Kind.LITERAL.ordinal() || kind == Kind.FLOAT_LITERAL.ordinal()) {
+                first_children[node] = child + number_count;
+            } else {
+                first_children[node] = child == NONE ? NONE : child + base;
+            }
+            next_siblings[node] = other.next_siblings[i] == NONE ? NONE : other.next_siblings[i] + base;
+        }
+        count = size;
+
+        if (token_count + other.token_count > token_table.length) {
+            token_table = Arrays.copyOf(token_table, Math.max(token_count + other.token_count, token_count * 2));
+        }
+        System.arraycopy(other.token_table, 0, token_table, token_count, other.token_count);
+        token_count += other.token_count;
+        if (number_count + other.number_count > numbers.length) {
+            numbers = Arrays.copyOf(numbers, Math.max(number_count + other.number_count, number_count * 2));
+        }
+        System.arraycopy(other.numbers, 0, numbers, number_count, other.number_count);
+        number_count += other.number_count;
+        strings.addAll(other.strings);
+
+        int last = first;
+        while (other.next_siblings[last] != NONE) last = other.next_siblings[last];
+        link(first + base);
+        last_children[open - 1] = last + base;
+    }
+
+    // the nodes being added to and the last child each has so far
+    private int[] open_nodes = new int[16];
+    private int[] last_children = new int[16];
+    private int open = 0;
+
+    private int leaf(Kind kind, Token token) {
+        if (count == kinds.length) grow(count + 1);
+
+        int node = count++;
+        kinds[node] = (byte) kind.ordinal();
+        tokens[node] = tokenIndex(token);
+        first_children[node] = NONE;
+        next_siblings[node] = NONE;
+
+        if (open > 0) {
+            link(node);
+            last_children[open - 1] = node;
+        }
+
+        return node;
+    }
+
+    // makes the node the next child of the innermost open node
+    private void link(int node) {
+        int last = last_children[open - 1];
+        if (last == NONE) {
+            first_children[open_nodes[open - 1]] = node;
+        } else {
+            next_siblings[last] = node;
+        }
+    }
+
+    private void grow(int needed) {
+        int capacity = Math.max(needed, count * 2);
+        kinds = Arrays.copyOf(kinds, capacity);
+        tokens = Arrays.copyOf(tokens, capacity);
+        first_children = Arrays.copyOf(first_children, capacity);
+        next_siblings = Arrays.copyOf(next_siblings, capacity);
+    }
+
+    private void begin(Kind kind, Token token) {
+        int node = leaf(kind, token);
+        if (open == open_nodes.length) {
+            open_nodes = Arrays.copyOf(open_nodes, open * 2);
+            last_children = Arrays.copyOf(last_children, open * 2);
+        }
+
+        open_nodes[open] = node;
+        last_children[open] = NONE;
+        open++;
+    }
+
+    private void end() {
+        open--;
+    }
+
+    private int tokenIndex(Token token) {
+        if (token == null) return NONE;
+        if (buffer != null && token.index >= 0) return token.index;
+
+        if (token_count == token_table.length) token_table = Arrays.copyOf(token_table, token_count * 2);
+        token_table[token_count] = token;
+        return -2 - token_count++;
+    }
+
+    private void literal(Kind kind, Token token, long bits) {
+        int node = leaf(kind, token);
+        if (number_count == numbers.length) numbers = Arrays.copyOf(numbers, number_count * 2);
+        numbers[number_count] = bits;
+        first_children[node] = number_count++;
+    }
+
+    private void string(String string) {
+        int node = leaf(Kind.STRING, null);
+        tokens[node] = strings.size();
+        strings.add(string);
+    }
+
+    private class Flattener implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            node(Kind.ASSIGN, expr.name, expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            node(Kind.BINARY, expr.operator, expr.type, expr.left, expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCastExpr(Expr.Cast expr) {
+            node(Kind.CAST, null, expr.type, expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitTypeExpr(Expr.Type expr) {
+            // a list of tokens and types
+            node(Kind.TYPE, null, expr.type);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            node(Kind.CALL, null, expr.callee, expr.arguments);
+            return null;
+        }
+
+        @Override
+        public Void visitArgsExpr(Expr.Args expr) {
+            node(Kind.ARGS, null, expr.arguments);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            node(Kind.GET, expr.name, expr.object);
+            return null;
+        }
+
+        @Override
+        public Void visitInstanceExpr(Expr.Instance expr) {
+            node(Kind.INSTANCE, expr.instanceName, expr.instanceFields);
+            return null;
+        }
+
+        @Override
+        public Void visitInstanceFieldsExpr(Expr.InstanceFields expr) {
+            node(Kind.INSTANCE_FIELDS, null, expr.instanceFields);
+            return null;
+        }
+
+        @Override
+        public Void visitInstanceFieldExpr(Expr.InstanceField expr) {
+            node(Kind.INSTANCE_FIELD, expr.name, expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            node(Kind.GROUPING, null, expr.type, expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            if (expr.floating) {
+                literal(Kind.FLOAT_LITERAL, expr.value, Double.doubleToRawLongBits(expr.real));
+            } else {
+                literal(Kind.LITERAL, expr.value, expr.integer);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            node(Kind.LOGICAL, expr.operator, expr.left, expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            node(Kind.SET, expr.name, expr.object, expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            node(Kind.SUPER, expr.keyword, expr.method);
+            return null;
+        }
+
+        @Override
+        public Void visitSelfExpr(Expr.Self expr) {
+            leaf(Kind.SELF, expr.keyword);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            node(Kind.UNARY, expr.operator, expr.type, expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            leaf(Kind.VARIABLE, expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitDeclarationsStmt(Stmt.Declarations stmt) {
+            node(Kind.DECLARATIONS, null, stmt.declarations);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            node(Kind.BLOCK, null, stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitTemplateStmt(Stmt.Template stmt) {
+            node(Kind.TEMPLATE, stmt.name, stmt.parent, stmt.fields, stmt.methods);
+            return null;
+        }
+
+        @Override
+        public Void visitTemplateFieldsStmt(Stmt.TemplateFields stmt) {
+            node(Kind.TEMPLATE_FIELDS, null, stmt.fields);
+            return null;
+        }
+
+        @Override
+        public Void visitTemplateFieldStmt(Stmt.TemplateField stmt) {
+            node(Kind.TEMPLATE_FIELD, stmt.def, stmt.field);
+            return null;
+        }
+
+        @Override
+        public Void visitTemplateMethodsStmt(Stmt.TemplateMethods stmt) {
+            node(Kind.TEMPLATE_METHODS, null, stmt.methods);
+            return null;
+        }
+
+        @Override
+        public Void visitTemplateMethodStmt(Stmt.TemplateMethod stmt) {
+            node(Kind.TEMPLATE_METHOD, stmt.def, stmt.method);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            node(Kind.CLASS, stmt.mut, stmt.name, stmt.parent, stmt.templates, stmt.req, stmt.fields, stmt.methods);
+            return null;
+        }
+
+        @Override
+        public Void visitRequireStmt(Stmt.Require stmt) {
+            node(Kind.REQUIRE, null, stmt.templates);
+            return null;
+        }
+
+        @Override
+        public Void visitTemplatesStmt(Stmt.Templates stmt) {
+            node(Kind.TEMPLATES, null, stmt.templates);
+            return null;
+        }
+
+        @Override
+        public Void visitFieldsStmt(Stmt.Fields stmt) {
+            node(Kind.FIELDS, null, stmt.fields);
+            return null;
+        }
+
+        @Override
+        public Void visitFieldStmt(Stmt.Field stmt) {
+            node(Kind.FIELD, stmt.priv, stmt.mutable, stmt.name);
+            return null;
+        }
+
+        @Override
+        public Void visitMethodsStmt(Stmt.Methods stmt) {
+            node(Kind.METHODS, null, stmt.methods);
+            return null;
+        }
+
+        @Override
+        public Void visitMethodStmt(Stmt.Method stmt) {
+            node(Kind.METHOD, stmt.override, stmt.priv, stmt.mut, stmt.method);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            node(Kind.EXPRESSION, null, stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            node(Kind.FUNCTION, stmt.name, stmt.parameters, stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitParamsStmt(Stmt.Params stmt) {
+            node(Kind.PARAMS, null, stmt.parameters);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            node(Kind.IF, null, stmt.condition, stmt.thenBranch, stmt.elseIfBranches, stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitElseIfsStmt(Stmt.ElseIfs stmt) {
+            node(Kind.ELSE_IFS, null, stmt.elseIfBranches);
+            return null;
+        }
+
+        @Override
+        public Void visitElseIfStmt(Stmt.ElseIf stmt) {
+            node(Kind.ELSE_IF, null, stmt.condition, stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            node(Kind.PRINT, null, stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            node(Kind.RETURN, stmt.keyword, stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitValStmt(Stmt.Val stmt) {
+            node(Kind.VAL, null, stmt.names, stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitMutStmt(Stmt.Mut stmt) {
+            node(Kind.MUT, null, stmt.names, stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitLetStmt(Stmt.Let stmt) {
+            node(Kind.LET, null, stmt.names, stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            node(Kind.WHILE, null, stmt.condition, stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitForStmt(Stmt.For stmt) {
+            node(Kind.FOR, stmt.arrayName, stmt.itemName, stmt.itemIndex, stmt.body);
+            return null;
+        }
+    }
+
+    // Turning nodes back into Expr and Stmt objects, for the visitors written against them. The
+    // Declarations of a root makes its top-level declarations one at a time, as they are asked for,
+    // so a pass over a whole program only holds one of them as objects.
+
+    Stmt.Declarations declarations(int root) {
+        int list = firstChild(root);
+        if (kind(list) == Kind.NULL) return new Stmt.Declarations(null);
+
+        List<Integer> children = new ArrayList<>();
+        for (int child = firstChild(list); child != NONE; child = next_siblings[child]) {
+            children.add(child);
+        }
+
+        return new Stmt.Declarations(new AbstractList<>() {
+            @Override
+            public Stmt get(int index) {
+                return stmt(children.get(index));
+            }
+
+            @Override
+            public int size() {
+                return children.size();
+            }
+        });
+    }
+
+    Expr expr(int node) {
+        return (Expr)make(node);
+    }
+
+    Stmt stmt(int node) {
+        return (Stmt)make(node);
+    }
+
+    // Makes the nodes of a subtree from its last node back to its root. They are in pre-order, so
+    // the children of a node are made before it and no node is made by a call for its parent,
+    // however deep the tree is.
+    private Object make(int root) {
+        int last = root;
+        while (firstChild(last) != NONE) {
+            last = firstChild(last);
+            while (next_siblings[last] != NONE) last = next_siblings[last];
+        }
+
+        Object[] made = new Object[last - root + 1];
+        for (int node = last; node >= root; node--) made[node - root] = make(node, made, root);
+        return made[0];
+    }
+
+    // the object for one node, out of the ones made for its children
+    @SuppressWarnings("unchecked")
+    private Object make(int node, Object[] made, int root) {
+        Token token = token(node);
+        int first = firstChild(node);
+        int second = first == NONE ? NONE : next_siblings[first];
+        int third = second == NONE ? NONE : next_siblings[second];
+        int fourth = third == NONE ? NONE : next_siblings[third];
+        Object a = first == NONE ? null : made[first - root];
+        Object b = second == NONE ? null : made[second - root];
+        Object c = third == NONE ? null : made[third - root];
+        Object d = fourth == NONE ? null : made[fourth - root];
+
+        switch (kind(node)) {
+            case NULL: return null;
+            case TOKEN: return token;
+            case STRING: return string(node);
+            case LIST: {
+                List<Object> list = new ArrayList<>();
+                for (int child = first; child != NONE; child = next_siblings[child]) list.add(made[child - root]);
+                return list;
+            }
+            // Expr
+            case ASSIGN: return new Expr.Assign(token, (Expr)a);
+            case BINARY: return new Expr.Binary((String)a, (Expr)b, token, (Expr)c);
+            case CAST: return new Expr.Cast((Expr.Type)a, (Expr)b);
+            case TYPE: return new Expr.Type((List<Object>)a);
+            case CALL: return new Expr.Call((Expr)a, (Expr.Args)b);
+            case ARGS: return new Expr.Args((List<Expr>)a);
+            case GET: return new Expr.Get((Expr)a, token);
+            case INSTANCE: return new Expr.Instance(token, (Expr.InstanceFields)a);
+            case INSTANCE_FIELDS: return new Expr.InstanceFields((List<Expr.InstanceField>)a);
+            case INSTANCE_FIELD: return new Expr.InstanceField(token, (Expr)a);
+            case GROUPING: return new Expr.Grouping((String)a, (Expr)b);
+            case LITERAL:
+                if (token.type == TokenType.NUMBER) return new Expr.Literal(token, longValue(node));
+                return new Expr.Literal(token);
+            case FLOAT_LITERAL: return new Expr.Literal(token, doubleValue(node));
+            case LOGICAL: return new Expr.Logical((Expr)a, token, (Expr)b);
+            case SET: return new Expr.Set((Expr)a, token, (Expr)b);
+            case SUPER: return new Expr.Super(token, (Token)a);
+            case SELF: return new Expr.Self(token);
+            case UNARY: return new Expr.Unary((String)a, token, (Expr)b);
+            case VARIABLE: return new Expr.Variable(token);
+            // Stmt
+            case DECLARATIONS: return new Stmt.Declarations((List<Stmt>)a);
+            case BLOCK: return new Stmt.Block((List<Stmt>)a);
+            case TEMPLATE: return new Stmt.Template(token, (Token)a, (Stmt.TemplateFields)b, (Stmt.TemplateMethods)c);
+            case TEMPLATE_FIELDS: return new Stmt.TemplateFields((List<Stmt.TemplateField>)a);
+            case TEMPLATE_FIELD: return new Stmt.TemplateField(token, (Token)a);
+            case TEMPLATE_METHODS: return new Stmt.TemplateMethods((List<Stmt.TemplateMethod>)a);
+            case TEMPLATE_METHOD: return new Stmt.TemplateMethod(token, (Stmt.Function)a);
+            case CLASS: {
+                int fifth = next_siblings[fourth];
+                int sixth = next_siblings[fifth];
+                return new Stmt.Class(token, (Token)a, (Token)b, (Stmt.Templates)c, (Stmt.Require)d,
+                        (Stmt.Fields)made[fifth - root], (Stmt.Methods)made[sixth - root]);
+            }
+            case REQUIRE: return new Stmt.Require((List<Token>)a);
+            case TEMPLATES: return new Stmt.Templates((List<Token>)a);
+            case FIELDS: return new Stmt.Fields((List<Stmt.Field>)a);
+            case FIELD: return new Stmt.Field(token, (Token)a, (Token)b);
+            case METHODS: return new Stmt.Methods((List<Stmt.Method>)a);
+            case METHOD: return new Stmt.Method(token, (Token)a, (Token)b, (Stmt.Function)c);
+            case EXPRESSION: return new Stmt.Expression((Expr)a);
+            case FUNCTION: return new Stmt.Function(token, (Stmt.Params)a, (Stmt.Block)b);
+            case PARAMS: return new Stmt.Params((List<Token>)a);
+            case IF: return new Stmt.If((Expr)a, (Stmt.Block)b, (Stmt.ElseIfs)c, (Stmt.Block)d);
+            case ELSE_IFS: return new Stmt.ElseIfs((List<Stmt.ElseIf>)a);
+            case ELSE_IF: return new Stmt.ElseIf((Expr)a, (Stmt.Block)b);
+            case PRINT: return new Stmt.Print((Expr)a);
+            case RETURN: return new Stmt.Return(token, (Expr)a);
+            case VAL: return new Stmt.Val((List<Token>)a, (List<Expr>)b);
+            case MUT: return new Stmt.Mut((List<Token>)a, (List<Expr>)b);
+            case LET: return new Stmt.Let((List<Token>)a, (List<Expr>)b);
+            case WHILE: return new Stmt.While((Expr)a, (Stmt.Block)b);
+            case FOR: return new Stmt.For(token, (Token)a, (Token)b, (Stmt.Block)c);
+            default: throw new IllegalArgumentException("Not a node: " + kind(node));
+        }
+    }
+}
@@ -1,176 +1,229 @@
 package Kona;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
-class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
-    String print(Stmt declarations) {
-        return declarations.accept(this);
+class AstPrinter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    // What is left to print, last first: nodes, tokens and strings to append as they are. A node
+    // appends its start and pushes the rest of itself, so no node is printed by a call for its
+    // parent and a tree prints the same however deep it is.
+    private final StringBuilder builder = new StringBuilder();
+    private Object[] work = new Object[16];
+    private int work_size = 0;
+
+    String print(Stmt stmt) {
+        return print((Object)stmt);
+    }
+
+    String print(Expr expr) {
+        return print((Object)expr);
+    }
+
+    private String print(Object root) {
+        builder.setLength(0);
+        push(root);
+        while (work_size > 0) {
+            Object item = work[--work_size];
+            work[work_size] = null;
+            switch (item) {
+                case Stmt stmt -> visit(stmt);
+                case Expr expr -> visit(expr);
+                case Token token -> builder.append(token.lexeme());
+                case Iterator<?> rest -> {
+                    Object next = rest.next();
+                    if (rest.hasNext()) push(rest);
+                    push(next);
+                }
+                default -> builder.append((String)item);
+            }
+        }
+
+        return builder.toString();
     }
 
-    @Override
-    public String visitDeclarationsStmt(Stmt.Declarations stmt) {
-        StringBuilder builder = new StringBuilder();
+    private void push(Object item) {
+        if (work_size == work.length) work = Arrays.copyOf(work, work_size * 2);
+        work[work_size++] = item;
+    }
+
+    // Nodes are dispatched with a switch over the sealed Expr and Stmt rather than with accept:
+    // the switch is one call site per pass that the JIT can compile into type checks, where accept
+    // is a virtual call shared by every pass. Leaving out a node type doesn't compile.
+    private void visit(Stmt stmt) {
+        switch (stmt) {
+            case Stmt.Declarations node -> visitDeclarationsStmt(node);
+            case Stmt.Block node -> visitBlockStmt(node);
+            case Stmt.Template node -> visitTemplateStmt(node);
+            case Stmt.TemplateFields node -> visitTemplateFieldsStmt(node);
+            case Stmt.TemplateField node -> visitTemplateFieldStmt(node);
+            case Stmt.TemplateMethods node -> visitTemplateMethodsStmt(node);
+            case Stmt.TemplateMethod node -> visitTemplateMethodStmt(node);
+            case Stmt.Class node -> visitClassStmt(node);
+            case Stmt.Require node -> visitRequireStmt(node);
+            case Stmt.Templates node -> visitTemplatesStmt(node);
+            case Stmt.Fields node -> visitFieldsStmt(node);
+            case Stmt.Field node -> visitFieldStmt(node);
+            case Stmt.Methods node -> visitMethodsStmt(node);
+            case Stmt.Method node -> visitMethodStmt(node);
+            case Stmt.Expression node -> visitExpressionStmt(node);
+            case Stmt.Function node -> visitFunctionStmt(node);
+            case Stmt.Params node -> visitParamsStmt(node);
+            case Stmt.If node -> visitIfStmt(node);
+            case Stmt.ElseIfs node -> visitElseIfsStmt(node);
+            case Stmt.ElseIf node -> visitElseIfStmt(node);
+            case Stmt.Print node -> visitPrintStmt(node);
+            case Stmt.Return node -> visitReturnStmt(node);
+            case Stmt.Val node -> visitValStmt(node);
+            case Stmt.Mut node -> visitMutStmt(node);
+            case Stmt.Let node -> visitLetStmt(node);
+            case Stmt.While node -> visitWhileStmt(node);
+            case Stmt.For node -> visitForStmt(node);
+        }
+    }
 
-        for (Stmt declaration : stmt.declarations) {
-            builder.append(declaration.accept(this));
+    private void visit(Expr expr) {
+        switch (expr) {
+            case Expr.Assign node -> visitAssignExpr(node);
+            case Expr.Binary node -> visitBinaryExpr(node);
+            case Expr.Cast node -> visitCastExpr(node);
+            case Expr.Type node -> visitTypeExpr(node);
+            case Expr.Call node -> visitCallExpr(node);
+            case Expr.Args node -> visitArgsExpr(node);
+            case Expr.Get node -> visitGetExpr(node);
+            case Expr.Instance node -> visitInstanceExpr(node);
+            case Expr.InstanceFields node -> visitInstanceFieldsExpr(node);
+            case Expr.InstanceField node -> visitInstanceFieldExpr(node);
+            case Expr.Grouping node -> visitGroupingExpr(node);
+            case Expr.Literal node -> visitLiteralExpr(node);
+            case Expr.Logical node -> visitLogicalExpr(node);
+            case Expr.Set node -> visitSetExpr(node);
+            case Expr.Super node -> visitSuperExpr(node);
+            case Expr.Self node -> visitSelfExpr(node);
+            case Expr.Unary node -> visitUnaryExpr(node);
+            case Expr.Variable node -> visitVariableExpr(node);
         }
+    }
 
-        return builder.toString();
+    @Override
+    public Void visitDeclarationsStmt(Stmt.Declarations stmt) {
+        // one at a time, the declarations of an arena are made as they are asked for
+        Iterator<Stmt> declarations = stmt.declarations.iterator();
+        if (declarations.hasNext()) push(declarations);
+        return null;
     }
 
     @Override
-    public String visitAssignExpr(Expr.Assign expr) {
+    public Void visitAssignExpr(Expr.Assign expr) {
         return parenthesize("Assignment:", expr.name, expr.value);
     }
 
     @Override
-    public String visitBinaryExpr(Expr.Binary expr) {
-        return parenthesize(expr.operator.lexeme,
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        return parenthesize(expr.operator.lexeme(),
                 expr.left, expr.right);
     }
 
     @Override
-    public String visitCastExpr(Expr.Cast expr) {
+    public Void visitCastExpr(Expr.Cast expr) {
         return parenthesize("Cast:", expr.type, expr.expression);
     }
 
     @Override
-    public String visitTypeExpr(Expr.Type stmt) {
-        return parenthesizeListType("type:", stmt.type);
-    }
-
-    private String parenthesizeListType(String name, List<Object> exprs) {
-        StringBuilder builder = new StringBuilder();
-        builder.append("(").append(name);
-
-        for (Object expr : exprs) {
-            builder.append(" ");
-            if (expr instanceof Expr.Type) {
-                builder.append(((Expr.Type)expr).accept(this));
-            } else {
-                builder.append(((Token)expr).lexeme);
-            }
-        }
-
-        builder.append(")");
-        return builder.toString();
+    public Void visitTypeExpr(Expr.Type stmt) {
+        return parenthesizeList("type:", stmt.type);
     }
 
     @Override
-    public String visitCallExpr(Expr.Call expr) {
+    public Void visitCallExpr(Expr.Call expr) {
         return parenthesize("Call:", expr.callee, expr.arguments);
     }
     // implement in parser
     @Override
-    public String visitArgsExpr(Expr.Args expr) {
-        return parenthesizeListArgs("Arguments:", expr.arguments);
-    }
-
-    private String parenthesizeListArgs(String name, List<Expr> exprs) {
-        StringBuilder builder = new StringBuilder();
-
-        builder.append("(").append(name);
-        for (Expr expr : exprs) {
-            builder.append(" ");
-            builder.append(expr.accept(this));
-        }
-        builder.append(")");
-
-        return builder.toString();
+    public Void visitArgsExpr(Expr.Args expr) {
+        return parenthesizeList("Arguments:", expr.arguments);
     }
 
     @Override
-    public String visitGetExpr(Expr.Get expr) {
+    public Void visitGetExpr(Expr.Get expr) {
         return parenthesize("Get:", expr.object, expr.name);
     }
 
     @Override
-    public String visitInstanceExpr(Expr.Instance expr) {
+    public Void visitInstanceExpr(Expr.Instance expr) {
         return parenthesize("Instance:", expr.instanceName, expr.instanceFields);
     }
     // implement in parser
     @Override
-    public String visitInstanceFieldsExpr(Expr.InstanceFields expr) {
-        return parenthesizeListInstanceFields("InstanceFields:", expr.instanceFields);
+    public Void visitInstanceFieldsExpr(Expr.InstanceFields expr) {
+        return parenthesizeList("InstanceFields:", expr.instanceFields);
     }
 
 
-    private String parenthesizeListInstanceFields(String name, List<Expr.InstanceField> exprs) {
-        StringBuilder builder = new StringBuilder();
-
-        builder.append("(").append(name);
-        for (Expr.InstanceField expr : exprs) {
-            builder.append(" ");
-            builder.append(expr.accept(this));
-        }
-        builder.append(")");
-
-        return builder.toString();
-    }
-
     @Override
-    public String visitInstanceFieldExpr(Expr.InstanceField expr) {
+    public Void visitInstanceFieldExpr(Expr.InstanceField expr) {
         return parenthesize("InstanceField:", expr.name, expr.value);
     }
 
     @Override
-    public String visitGroupingExpr(Expr.Grouping expr) {
+    public Void visitGroupingExpr(Expr.Grouping expr) {
         return parenthesize("group", expr.expression);
     }
 
     @Override
-    public String visitLiteralExpr(Expr.Literal expr) {
-        return expr.value.lexeme;
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        builder.append(expr.value.lexeme());
+        return null;
     }
 
     @Override
-    public String visitLogicalExpr(Expr.Logical expr) {
+    public Void visitLogicalExpr(Expr.Logical expr) {
         return parenthesize("logical:", expr.left, expr.operator, expr.right);
     }
 
     @Override
-    public String visitSetExpr(Expr.Set expr) {
+    public Void visitSetExpr(Expr.Set expr) {
         return parenthesize("set:", expr.object, expr.name, expr.value);
     }
 
     @Override
-    public String visitSuperExpr(Expr.Super expr) {
+    public Void visitSuperExpr(Expr.Super expr) {
         return parenthesize("super:", expr.keyword, expr.method);
     }
 
     @Override
-    public String visitSelfExpr(Expr.Self expr) {
+    public Void visitSelfExpr(Expr.Self expr) {
         return parenthesize("self:", expr.keyword);
     }
 
     @Override
-    public String visitUnaryExpr(Expr.Unary expr) {
-        return parenthesize(expr.operator.lexeme, expr.right);
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        return parenthesize(expr.operator.lexeme(), expr.right);
     }
 
     @Override
-    public String visitVariableExpr(Expr.Variable expr) {
-        return parenthesize(expr.name.lexeme);
+    public Void visitVariableExpr(Expr.Variable expr) {
+        return parenthesize(expr.name.lexeme());
     }
 
-    private String parenthesize(String name, Object... exprs) {
-        StringBuilder builder = new StringBuilder();
+    // appends the start of a node and pushes what follows it, the parts of the node each after a
+    // space and the closing parenthesis
+    private Void parenthesize(String name, Object... exprs) {
+        return parenthesizeList(name, Arrays.asList(exprs));
+    }
 
+    private Void parenthesizeList(String name, List<?> exprs) {
         builder.append("(").append(name);
-        for (Object expr : exprs) {
-            builder.append(" ");
-            if (expr instanceof Expr) {
-                // not sure if cast works
-                builder.append(((Expr)expr).accept(this));
-            } else if (expr instanceof Stmt) {
-                builder.append(((Stmt)expr).accept(this));
-            } else if (expr instanceof Token) {
-                builder.append(((Token)expr).lexeme);
-            }
+
+        push(")");
+        for (int i = exprs.size() - 1; i >= 0; i--) {
+            Object expr = exprs.get(i);
+            if (expr != null) push(expr);
+            push(" ");
         }
-        builder.append(")");
 
-        return builder.toString();
+        return null;
     }
 /*
     public static void main(String[] args) {
@@ -193,241 +246,145 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
     ////////////////////////////////////// statements ////////////////////////////////////////////
 
     @Override
-    public String visitBlockStmt(Stmt.Block stmt) {
+    public Void visitBlockStmt(Stmt.Block stmt) {
         return parenthesizeListBlock("block:", stmt.statements);
     }
 
-    private String parenthesizeListBlock(String name, List<Stmt> stmts) {
-        StringBuilder builder = new StringBuilder();
-        builder.append("(").append(name);
-
-        if (stmts == null) {
-            builder.append(" ");
-            builder.append("null_indent");
-        } else {
-            for (Stmt stmt : stmts) {
-                builder.append(" ");
-                builder.append(stmt.accept(this));
-            }
-        }
+    private Void parenthesizeListBlock(String name, List<Stmt> stmts) {
+        if (stmts != null) return parenthesizeList(name, stmts);
 
-        builder.append(")");
-        return builder.toString();
+        builder.append("(").append(name).append(" null_indent)");
+        return null;
     }
 
     @Override
-    public String visitTemplateStmt(Stmt.Template stmt) {
+    public Void visitTemplateStmt(Stmt.Template stmt) {
         return parenthesize("template:", stmt.name, stmt.parent, stmt.fields, stmt.methods);
     }
 
     @Override
-    public String visitTemplateFieldsStmt(Stmt.TemplateFields stmt) {
-        return parenthesizeListTemplateFields("fields:", stmt.fields);
-    }
-
-    private String parenthesizeListTemplateFields(String name, List<Stmt.TemplateField> stmts) {
-        StringBuilder builder = new StringBuilder();
-        builder.append("(").append(name);
-
-        for (Stmt.TemplateField stmt : stmts) {
-            builder.append(" ");
-            builder.append(stmt.accept(this));
-        }
-
-        builder.append(")");
-        return builder.toString();
+    public Void visitTemplateFieldsStmt(Stmt.TemplateFields stmt) {
+        return parenthesizeList("fields:", stmt.fields);
     }
 
     @Override
-    public String visitTemplateFieldStmt(Stmt.TemplateField stmt) {
+    public Void visitTemplateFieldStmt(Stmt.TemplateField stmt) {
         return parenthesize("field:", stmt.def, stmt.field);
     }
 
     @Override
-    public String visitTemplateMethodsStmt(Stmt.TemplateMethods stmt) {
-        return parenthesizeListTemplateMethods("methods:", stmt.methods);
-    }
-
-    private String parenthesizeListTemplateMethods(String name, List<Stmt.TemplateMethod> stmts) {
-        StringBuilder builder = new StringBuilder();
-        builder.append("(").append(name);
-
-        for (Stmt.TemplateMethod stmt : stmts) {
-            builder.append(" ");
-            builder.append(stmt.accept(this));
-        }
-
-        builder.append(")");
-        return builder.toString();
+    public Void visitTemplateMethodsStmt(Stmt.TemplateMethods stmt) {
+        return parenthesizeList("methods:", stmt.methods);
     }
 
     @Override
-    public String visitTemplateMethodStmt(Stmt.TemplateMethod stmt) {
+    public Void visitTemplateMethodStmt(Stmt.TemplateMethod stmt) {
         return parenthesize("method", stmt.def, stmt.method);
     }
 
     @Override
-    public String visitClassStmt(Stmt.Class stmt) {
+    public Void visitClassStmt(Stmt.Class stmt) {
         return parenthesize("class:", stmt.name, stmt.parent, stmt.templates, stmt.fields, stmt.methods);
     }
 
     @Override
-    public String visitTemplatesStmt(Stmt.Templates stmt) {
-        return parenthesizeListOfTokens("templates:", stmt.templates);
-    }
-
-    private String parenthesizeListOfTokens(String name, List<Token> list) {
-        StringBuilder builder = new StringBuilder();
-        builder.append("(").append(name);
-
-        for (Token token : list) {
-            builder.append(" ");
-            builder.append(token.lexeme);
-        }
-
-        builder.append(")");
-        return builder.toString();
+    public Void visitRequireStmt(Stmt.Require stmt) {
+        return parenthesizeList("require:", stmt.templates);
     }
 
     @Override
-    public String visitFieldsStmt(Stmt.Fields stmt) {
-        return parenthesizeListFields("fields:", stmt.fields);
+    public Void visitTemplatesStmt(Stmt.Templates stmt) {
+        return parenthesizeList("templates:", stmt.templates);
     }
 
-    private String parenthesizeListFields(String name, List<Stmt.Field> stmts) {
-        StringBuilder builder = new StringBuilder();
-        builder.append("(").append(name);
-
-        for (Stmt.Field stmt : stmts) {
-            builder.append(" ");
-            builder.append(stmt.accept(this));
-        }
-
-        builder.append(")");
-        return builder.toString();
+    @Override
+    public Void visitFieldsStmt(Stmt.Fields stmt) {
+        return parenthesizeList("fields:", stmt.fields);
     }
 
     @Override
-    public String visitFieldStmt(Stmt.Field stmt) {
+    public Void visitFieldStmt(Stmt.Field stmt) {
         return parenthesize("field:", stmt.priv, stmt.mutable, stmt.name);
     }
 
     @Override
-    public String visitMethodsStmt(Stmt.Methods stmt) {
-        return parenthesizeListMethods("methods:", stmt.methods);
-    }
-
-    private String parenthesizeListMethods(String name, List<Stmt.Method> stmts) {
-        StringBuilder builder = new StringBuilder();
-        builder.append("(").append(name);
-
-        for (Stmt.Method stmt : stmts) {
-            builder.append(" ");
-            builder.append(stmt.accept(this));
-        }
-
-        builder.append(")");
-        return builder.toString();
+    public Void visitMethodsStmt(Stmt.Methods stmt) {
+        return parenthesizeList("methods:", stmt.methods);
     }
 
     @Override
-    public String visitMethodStmt(Stmt.Method stmt) {
+    public Void visitMethodStmt(Stmt.Method stmt) {
         return parenthesize("method:", stmt.priv, stmt.method);
     }
 
     @Override
-    public String visitExpressionStmt(Stmt.Expression stmt) {
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
         return parenthesize("expression:", stmt.expression);
     }
 
     @Override
-    public String visitFunctionStmt(Stmt.Function stmt) {
+    public Void visitFunctionStmt(Stmt.Function stmt) {
         return parenthesize("fun:", stmt.name, stmt.parameters, stmt.body);
     }
 
     @Override
-    public String visitParamsStmt(Stmt.Params stmt) {
-        return parenthesizeListOfTokens("parameters:", stmt.parameters);
+    public Void visitParamsStmt(Stmt.Params stmt) {
+        return parenthesizeList("parameters:", stmt.parameters);
     }
 
     @Override
-    public String visitIfStmt(Stmt.If stmt) {
+    public Void visitIfStmt(Stmt.If stmt) {
         return parenthesize("if:", stmt.condition, stmt.thenBranch, stmt.elseIfBranches, stmt.elseBranch);
     }
 
     @Override
-    public String visitElseIfsStmt(Stmt.ElseIfs stmt) {
-        return parenthesizeListElseIfs("elifs:", stmt.elseIfBranches);
-    }
-
-    private String parenthesizeListElseIfs(String name, List<Stmt.ElseIf> stmts) {
-        StringBuilder builder = new StringBuilder();
-        builder.append("(").append(name);
-
-        for (Stmt.ElseIf stmt : stmts) {
-            builder.append(" ");
-            builder.append(stmt.accept(this));
-        }
-
-        builder.append(")");
-        return builder.toString();
+    public Void visitElseIfsStmt(Stmt.ElseIfs stmt) {
+        return parenthesizeList("elifs:", stmt.elseIfBranches);
     }
 
     @Override
-    public String visitElseIfStmt(Stmt.ElseIf stmt) {
+    public Void visitElseIfStmt(Stmt.ElseIf stmt) {
         return parenthesize("elif:", stmt.condition, stmt.body);
     }
 
     @Override
-    public String visitPrintStmt(Stmt.Print stmt) {
+    public Void visitPrintStmt(Stmt.Print stmt) {
         return parenthesize("echo:", stmt.expression);
     }
 
     @Override
-    public String visitReturnStmt(Stmt.Return stmt) {
+    public Void visitReturnStmt(Stmt.Return stmt) {
         return parenthesize("return:", stmt.value);
     }
 
     @Override
-    public String visitValStmt(Stmt.Val stmt) {
+    public Void visitValStmt(Stmt.Val stmt) {
         return parenthesizeListsVarDecl("val:", stmt.names, stmt.initializer);
     }
 
-    private String parenthesizeListsVarDecl(String name, List<Token> names, List<Expr> initializer) {
-        StringBuilder builder = new StringBuilder();
-        builder.append("(").append(name);
-
-        for (Token var_name : names) {
-            builder.append(" ");
-            builder.append(var_name.lexeme);
-        }
-
-        for (Expr expr : initializer) {
-            builder.append(" ");
-            builder.append(expr.accept(this));
-        }
-
-        builder.append(")");
-        return builder.toString();
+    private Void parenthesizeListsVarDecl(String name, List<Token> names, List<Expr> initializer) {
+        List<Object> parts = new ArrayList<>(names);
+        parts.addAll(initializer);
+        return parenthesizeList(name, parts);
     }
 
     @Override
-    public String visitMutStmt(Stmt.Mut stmt) {
+    public Void visitMutStmt(Stmt.Mut stmt) {
         return parenthesizeListsVarDecl("mut:", stmt.names, stmt.initializer);
     }
 
     @Override
-    public String visitLetStmt(Stmt.Let stmt) {
+    public Void visitLetStmt(Stmt.Let stmt) {
         return parenthesizeListsVarDecl("let:", stmt.names, stmt.initializer);
     }
 
     @Override
-    public String visitWhileStmt(Stmt.While stmt) {
+    public Void visitWhileStmt(Stmt.While stmt) {
         return parenthesize("while:", stmt.condition, stmt.body);
     }
 
     @Override
-    public String visitForStmt(Stmt.For stmt) {
+    public Void visitForStmt(Stmt.For stmt) {
         return parenthesize("for:", stmt.arrayName, stmt.itemName, stmt.itemIndex, stmt.body);
     }
 }
\ No newline at end of file
@@ -0,0 +1,189 @@
+package Kona;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static Kona.TextSearch.SEARCH;
+
+// Scans the UTF-8 bytes of a source without decoding it. Every Kona token outside of strings and
+// comments is ASCII, so the other bytes only have to be counted to keep the columns equal to the
+// ones Scanner gives, which counts UTF-16 chars. Lexemes are left as slices of the bytes until
+// something asks for them.
+class ByteScanner extends Scanner implements SourceText {
+    // any char that is not ASCII works for the comparisons in Scanner
+    private static final char NON_ASCII = '\u0080';
+    private static final int SHORT_RUN = 8;
+
+    private final ByteBuffer source;
+    // the search needs an array, runs are looked for in copies of the source a block at a time
+    private final byte[] block = new byte[128];
+    // the second half of a surrogate pair, a 4 byte sequence is two chars in a String
+    private boolean pending_low = false;
+
+    ByteScanner(ByteBuffer source) {
+        this(source, new CompilationSession());
+    }
+
+    ByteScanner(ByteBuffer source, CompilationSession session) {
+        this(source, 0, source.limit(), session.diagnostics, session.symbols);
+    }
+
+    ByteScanner(ByteBuffer source, int from, int to, Diagnostics diagnostics, Symbols symbols) {
+        super(null, from, to, diagnostics, symbols);
+        this.source = source;
+    }
+
+    static ByteScanner map(Path path) throws IOException {
+        return map(path, new CompilationSession());
+    }
+
+    static ByteScanner map(Path path, CompilationSession session) throws IOException {
+        try (FileChannel channel = FileChannel.open(path)) {
+            return new ByteScanner(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), session);
+        }
+    }
+
+    @Override
+    Scanner part(int from, int to) {
+        return new ByteScanner(source, from, to, diagnostics, symbols);
+    }
+
+    @Override
+    boolean isAtEnd() {
+        return current >= limit && !pending_low;
+    }
+
+    @Override
+    char peek() {
+        if (pending_low) return NON_ASCII;
+        if (current >= limit) return '\0';
+        return ascii(current);
+    }
+
+    @Override
+    char peekNext() {
+        if (pending_low) {
+            if (current >= limit) return '\0';
+            return ascii(current);
+        }
+
+        if (current >= limit) return '\0';
+        int next = current + sequenceLength(current);
+        if (next >= limit) return '\0';
+        // a 4 byte sequence is followed by its own second half
+        if (sequenceLength(current) == 4) return NON_ASCII;
+        return ascii(next);
+    }
+
+    @Override
+    boolean match(char expected) {
+        if (pending_low || current >= limit || source.get(current) != expected) return false;
+
+        current++;
+        column++;
+        return true;
+    }
+
+    @Override
+    char advance() {
+        if (pending_low) {
+            pending_low = false;
+            column++;
+            return NON_ASCII;
+        }
+
+        if (current >= limit) return '\0';
+
+        byte b = source.get(current);
+        column++;
+        if (b >= 0) {
+            current++;
+            return (char) b;
+        }
+
+        int length = sequenceLength(current);
+        current += length;
+        pending_low = length == 4;
+        return NON_ASCII;
+    }
+
+    // a run ends before the first byte that is not ASCII, those are left to advance
+    @Override
+    int plainRun(char a, char b) {
+        return run(true, (byte) a, (byte) b);
+    }
+
+    @Override
+    int sameRun(char c) {
+        return run(false, (byte) c, (byte) c);
+    }
+
+    private int run(boolean plain, byte a, byte b) {
+        if (pending_low) return 0;
+
+        int from = current;
+        // most runs are short, looking at those in place is cheaper than copying them out
+        for (int end = Math.min(limit, current + SHORT_RUN); from < end; from++) {
+            byte c = source.get(from);
+            if (plain ? c == a || c == b || c == '\n' || c < 0 : c != a) return from - current;
+        }
+
+        while (from < limit) {
+            int size = Math.min(block.length, limit - from);
+            source.get(from, block, 0, size);
+            int end = plain ? SEARCH.plainEnd(block, 0, size, a, b) : SEARCH.runEnd(block, 0, size, a);
+            from += end;
+            if (end < size) break;
+        }
+
+        return from - current;
+    }
+
+    // only a string with chars beyond ASCII has more bytes than chars, decode that one now so
+    // the tokens can tell the lexeme size from the length
+    @Override
+    String keep(int from, int to, int chars) {
+        if (to - from == chars) return null;
+        return text(from, to - from);
+    }
+
+    // only used on identifiers, which are ASCII
+    @Override
+    char charAt(int position) {
+        return (char) source.get(position);
+    }
+
+    @Override
+    public String text(int offset, int size) {
+        byte[] bytes = new byte[size];
+        source.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private char ascii(int position) {
+        byte b = source.get(position);
+        return b >= 0 ? (char) b : NON_ASCII;
+    }
+
+    // Bytes in the sequence starting at position. A malformed sequence is one byte, like the
+    // replacement char a decoder would put in its place.
+    private int sequenceLength(int position) {
+        int b = source.get(position) & 0xFF;
+        int length;
+        if (b < 0x80) return 1;
+        else if (b >= 0xC2 && b <= 0xDF) length = 2;
+        else if (b >= 0xE0 && b <= 0xEF) length = 3;
+        else if (b >= 0xF0 && b <= 0xF4) length = 4;
+        else return 1;
+
+        if (position + length > limit) return 1;
+        for (int i = 1; i < length; i++) {
+            if ((source.get(position + i) & 0xC0) != 0x80) return 1;
+        }
+
+        return length;
+    }
+}
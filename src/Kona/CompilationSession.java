@@ -0,0 +1,123 @@
+package Kona;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+// One compilation's worth of state: where its output and diagnostics go, its options and whether
+// it failed. Nothing in the scanner or parser is static anymore, so any number of sessions can
+// compile at the same time in one JVM without seeing each other's errors. Sessions that compile
+// files together, as a project does, can share a symbol table so the ids are the same in all of
+// them. A session is used by one compilation at a time.
+class CompilationSession {
+    // null when the source is only checked for errors
+    final PrintStream out;
+    final Diagnostics diagnostics;
+    // the pool big files are scanned and parsed on
+    final ForkJoinPool pool;
+    final int max_depth;
+    // where sources that compiled without errors are kept, null for none
+    final ParseCache cache;
+    final Symbols symbols;
+
+    // prints to the standard streams, like the command line does
+    CompilationSession() {
+        this(System.out, System.err);
+    }
+
+    CompilationSession(PrintStream out, PrintStream err) {
+        this(out, err, ForkJoinPool.commonPool(), Diagnostics.LIMIT, Parser.MAX_DEPTH, ParseCache.CONFIGURED);
+    }
+
+    CompilationSession(PrintStream out, PrintStream err, ForkJoinPool pool, int error_limit, int max_depth, ParseCache cache) {
+        this(out, err, pool, error_limit, max_depth, cache, new Symbols());
+    }
+
+    CompilationSession(PrintStream out, PrintStream err, ForkJoinPool pool, int error_limit, int max_depth, ParseCache cache, Symbols symbols) {
+        this.out = out;
+        this.diagnostics = new Diagnostics(error_limit, err);
+        this.pool = pool;
+        this.max_depth = max_depth;
+        this.cache = cache;
+        this.symbols = symbols;
+    }
+
+    boolean hadError() {
+        return diagnostics.hadError();
+    }
+
+    Stmt compile(Path file) throws IOException {
+        return compile(file, Charset.defaultCharset());
+    }
+
+    // reads the file the cheapest way its encoding allows and compiles it
+    Stmt compile(Path file, Charset charset) throws IOException {
+        // UTF-8 sources are mapped and scanned as bytes, nothing gets decoded
+        if (charset.equals(StandardCharsets.UTF_8) && Files.size(file) <= Integer.MAX_VALUE) {
+            try (FileChannel channel = FileChannel.open(file)) {
+                return compile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        // the scanner pulls the file in chunks instead of holding it as one String
+        try (FileChannel channel = FileChannel.open(file)) {
+            return compile(new Scanner(channel, charset, this));
+        } catch (UncheckedIOException error) {
+            throw error.getCause();
+        }
+    }
+
+    // compiles UTF-8 source bytes, taking the tokens and tree from the cache if it has them
+    Stmt compile(ByteBuffer source) {
+        ByteScanner scanner = new ByteScanner(source, this);
+        if (cache == null) return compile(scanner);
+
+        // the tokens are only needed to print them
+        ParseCache.Entry cached = cache.get(source, max_depth, symbols, out == null ? null : scanner);
+        if (cached != null) {
+            if (out != null) out.println(cached.tokens);
+            return print(cached.tree);
+        }
+
+        return compile(scanner, source);
+    }
+
+    // scans and parses the source, printing the tokens and the tree unless only checking. The
+    // scanner must report to this session. Returns null if there were errors.
+    Stmt compile(Scanner scanner) {
+        return compile(scanner, null);
+    }
+
+    // keeps the result in the cache under "source" if it has no errors
+    private Stmt compile(Scanner scanner, ByteBuffer source) {
+        // big files are scanned in parts on all cores
+        TokenBuffer tokens = scanner.scanTokens(pool);
+        if (out != null) out.println(tokens);
+
+        // the tree is flattened as it's parsed, its declarations are made again one at a time to
+        // be printed
+        Parser parser = new Parser(tokens, this);
+        AstArena tree = parser.parseFlat(pool);
+
+        // Stop if there was a syntax error.
+        if (hadError()) return null;
+
+        if (source != null) cache.put(source, max_depth, tokens, tree);
+        return print(tree.declarations(0));
+    }
+
+    private Stmt print(Stmt statements) {
+        if (out == null) return statements;
+
+        out.println(new AstPrinter().print(statements));   // book says replace line with: interpreter.interpret(statements);
+        // out.println(new ZigOutput().print(statements));
+        return statements;
+    }
+}
@@ -0,0 +1,287 @@
+package Kona;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A long running compiler that "kona file" hands its file to over a Unix domain socket, so the
+// compile runs on warm code and tables instead of paying for a new JVM each time. Started with
+// "kona --daemon", it stops by itself after being idle for a while. Each request gets a session
+// of its own, its output comes back as frames in the order it was printed.
+//
+// A request is the protocol version, the charset of the client's output, the charset and the
+// absolute path of the file. The answer is frames of a kind byte: OUT and ERR with the bytes
+// printed, then EXIT with the exit status.
+class Daemon {
+    private static final int PROTOCOL = 1;
+    private static final byte OUT = 1;
+    private static final byte ERR = 2;
+    private static final byte EXIT = 0;
+    // exit statuses of requests that failed to compile at all, as in sysexits.h
+    private static final int IO_ERROR = 74;
+    private static final int SOFTWARE_ERROR = 70;
+    // minutes without a request before the daemon stops
+    private static final long IDLE_MINUTES = Long.getLong("kona.daemon.idle", 30);
+
+    // Where the daemon listens, one per user: in the user's runtime directory, or in a directory of
+    // the user's own in the temporary directory. Anyone who could put a socket there could be
+    // sent the files being compiled and answer for the daemon, so the directory has to be private,
+    // see isPrivate.
+    static Path socket() {
+        String path = System.getProperty("kona.socket");
+        if (path != null) return Path.of(path).toAbsolutePath();
+
+        String runtime = System.getenv("XDG_RUNTIME_DIR");
+        Path directory = runtime != null && !runtime.isEmpty()
+                ? Path.of(runtime, "kona")
+                : Path.of(System.getProperty("java.io.tmpdir"), "kona-" + System.getProperty("user.name"));
+        return directory.resolve("daemon.sock");
+    }
+
+    // Whether only this user can get at the path: it isn't a link, this user owns it, and if it's a
+    // directory nobody else may read, write or enter it. Without POSIX permissions to tell, it isn't.
+    private static boolean isPrivate(Path path) {
+        try {
+            PosixFileAttributes attributes = Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attributes.isSymbolicLink() || !attributes.owner().equals(currentUser())) return false;
+            if (!attributes.isDirectory()) return true;
+
+            for (PosixFilePermission permission : attributes.permissions()) {
+                if (permission != PosixFilePermission.OWNER_READ && permission != PosixFilePermission.OWNER_WRITE
+                        && permission != PosixFilePermission.OWNER_EXECUTE) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException | UnsupportedOperationException unknown) {
+            return false;
+        }
+    }
+
+    private static UserPrincipal currentUser() throws IOException {
+        return FileSystems.getDefault().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+    }
+
+    // Compiles the file on the daemon, printing what it prints to out and err. Returns the exit
+    // status, -1 if there is no daemon to take it and nothing was printed, or IO_ERROR if the
+    // daemon went away after printing part of the output. A socket that isn't
+    // in a private directory of this user's, or isn't this user's, is never connected to.
+    static int compile(Path socket, Path file, Charset charset, PrintStream out, PrintStream err) {
+        if (!Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) return -1;
+        if (!isPrivate(socket.getParent()) || !isPrivate(socket)) {
+            err.println("kona: not using the daemon at " + socket + ", someone else could have put it there");
+            return -1;
+        }
+
+        boolean printed = false;
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            request.writeInt(PROTOCOL);
+            request.writeUTF(out.charset().name());
+            request.writeUTF(charset.name());
+            request.writeUTF(file.toAbsolutePath().toString());
+            request.flush();
+
+            DataInputStream answer = new DataInputStream(Channels.newInputStream(channel));
+            byte[] bytes = new byte[8192];
+            while (true) {
+                byte kind = answer.readByte();
+                if (kind == EXIT) return answer.readInt();
+
+                int length = answer.readInt();
+                if (bytes.length < length) bytes = new byte[length];
+                answer.readFully(bytes, 0, length);
+                (kind == OUT ? out : err).write(bytes, 0, length);
+                printed = true;
+            }
+        } catch (IOException error) {
+            // A daemon that went away before answering leaves the compile to the caller. Once
+            // something was printed it can't be, what was printed is only part of the output.
+            if (!printed) return -1;
+            err.println("kona: lost the daemon before it finished, the output above is incomplete"
+                    + (error.getMessage() == null ? "" : " (" + error.getMessage() + ")"));
+            return IO_ERROR;
+        } finally {
+            out.flush();
+            err.flush();
+        }
+    }
+
+    // Listens on the socket until idle for IDLE_MINUTES. Returns right away if another daemon
+    // already listens there. The socket's directory is made if it's missing, only the user can get
+    // into it, and the daemon won't start in one that anybody else could.
+    static void serve(Path socket) throws IOException {
+        Path directory = socket.getParent();
+        if (!Files.exists(directory, LinkOption.NOFOLLOW_LINKS)) {
+            try {
+                Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            } catch (UnsupportedOperationException no_posix) {
+                throw new IOException("Can't make " + directory + " private to the user.");
+            }
+        }
+        if (!isPrivate(directory)) {
+            throw new IOException(directory + " is not a directory only the user can get into.");
+        }
+
+        if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+            try {
+                SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+                System.err.println("kona: a daemon already listens on " + socket);
+                return;
+            } catch (IOException stale) {
+                // left behind by a daemon that didn't stop cleanly
+                Files.delete(socket);
+            }
+        }
+
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        ExecutorService workers = Executors.newCachedThreadPool();
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        AtomicInteger active = new AtomicInteger();
+        AtomicLong last_request = new AtomicLong(System.nanoTime());
+        try (server) {
+            // nobody else can get into the directory, the socket's own permissions don't matter
+            // while it's being made
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+
+            timer.scheduleWithFixedDelay(() -> {
+                long idle = System.nanoTime() - last_request.get();
+                if (active.get() == 0 && idle >= TimeUnit.MINUTES.toNanos(IDLE_MINUTES)) {
+                    try {
+                        server.close();
+                    } catch (IOException ignored) {
+                        // closing is all that's wanted
+                    }
+                }
+            }, 1, 1, TimeUnit.MINUTES);
+
+            while (true) {
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (ClosedChannelException idle) {
+                    break;
+                }
+
+                active.incrementAndGet();
+                workers.execute(() -> {
+                    try (client) {
+                        answer(client);
+                    } catch (IOException gone) {
+                        // the client stopped waiting, nobody is left to tell
+                    } finally {
+                        last_request.set(System.nanoTime());
+                        active.decrementAndGet();
+                    }
+                });
+            }
+        } finally {
+            timer.shutdownNow();
+            workers.shutdown();
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    private static void answer(SocketChannel client) throws IOException {
+        DataInputStream request = new DataInputStream(Channels.newInputStream(client));
+        DataOutputStream answer = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client), 1 << 16));
+        int protocol;
+        String output;
+        String charset;
+        String file;
+        try {
+            protocol = request.readInt();
+            output = request.readUTF();
+            charset = request.readUTF();
+            file = request.readUTF();
+        } catch (EOFException gone) {
+            return;
+        }
+        // a client of another version compiles in its own process, it gets no answer
+        if (protocol != PROTOCOL) return;
+
+        // printed the way the client would have printed it
+        PrintStream out = new PrintStream(new Frames(answer, OUT), false, Charset.forName(output));
+        PrintStream err = new PrintStream(new Frames(answer, ERR), false, Charset.forName(output));
+        CompilationSession session = new CompilationSession(out, err);
+        int status;
+        try {
+            session.compile(Path.of(file), Charset.forName(charset));
+            status = session.hadError() ? 65 : 0;
+        } catch (IOException error) {
+            err.println("kona: " + error);
+            status = IO_ERROR;
+        } catch (Throwable error) {
+            // a bug or an Error such as running out of stack or memory still ends in an answer,
+            // or the client would be left with output and no status
+            err.println("kona: " + error);
+            status = SOFTWARE_ERROR;
+        }
+
+        out.flush();
+        err.flush();
+        answer.writeByte(EXIT);
+        answer.writeInt(status);
+        answer.flush();
+    }
+
+    // Sends what is written to it as frames of one kind. Out and err share the connection, frames
+    // go out in the order they were written.
+    private static class Frames extends OutputStream {
+        private final DataOutputStream connection;
+        private final byte kind;
+
+        Frames(DataOutputStream connection, byte kind) {
+            this.connection = connection;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) return;
+            synchronized (connection) {
+                connection.writeByte(kind);
+                connection.writeInt(length);
+                connection.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (connection) {
+                connection.flush();
+            }
+        }
+    }
+}
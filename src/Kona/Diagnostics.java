@@ -0,0 +1,101 @@
+package Kona;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// Where the scanner and parser put their errors. The first "limit" are kept, and printed as they
+// come when the sink has a stream; past that they are only counted, so a file full of errors costs
+// the same as one with a hundred of them. flush tells how many were left out and starts counting
+// again, hadError remembers there were any.
+class Diagnostics {
+    static final int LIMIT = 100;
+
+    static class Diagnostic {
+        final int line;
+        final int column;
+        final int length;
+        final String message;
+        // an error at the end of the file has no column to point to
+        final boolean at_end;
+
+        Diagnostic(int line, int column, int length, String message, boolean at_end) {
+            this.line = line;
+            this.column = column;
+            this.length = length;
+            this.message = message;
+            this.at_end = at_end;
+        }
+    }
+
+    private final int limit;
+    // null when only counting
+    private final PrintStream err;
+    private final List<Diagnostic> kept = new ArrayList<>();
+    private int count = 0;
+    private boolean had_error = false;
+    // the file the errors are in, printed before them when many files are compiled together
+    String file = null;
+
+    Diagnostics(int limit, PrintStream err) {
+        this.limit = limit;
+        this.err = err;
+    }
+
+    // only counts, for parses whose errors are thrown away
+    static Diagnostics counting() {
+        return new Diagnostics(0, null);
+    }
+
+    void add(Token token, String message) {
+        add(token.line, token.column, token.length, message, token.type == TokenType.EOF);
+    }
+
+    void add(int line, int column, int length, String message) {
+        add(line, column, length, message, false);
+    }
+
+    private void add(int line, int column, int length, String message, boolean at_end) {
+        count++;
+        had_error = true;
+        if (kept.size() >= limit) return;
+
+        Diagnostic diagnostic = new Diagnostic(line, column, length, message, at_end);
+        kept.add(diagnostic);
+        if (err != null) report(diagnostic);
+    }
+
+    // todo: show error lines
+    private void report(Diagnostic diagnostic) {
+        if (file != null && diagnostic.at_end) {
+            err.println(file + ":" + diagnostic.line + " error: end of file, " + diagnostic.message);
+        } else if (file != null) {
+            err.println(file + ":" + diagnostic.line + ":" + diagnostic.column + " error: " + diagnostic.message);
+        } else if (diagnostic.at_end) {
+            err.println("line: " + diagnostic.line + ", error: end of file, " + diagnostic.message);
+        } else {
+            err.println(diagnostic.line + ":" + diagnostic.column + " error: " + diagnostic.message);
+        }
+    }
+
+    boolean hadError() {
+        return had_error;
+    }
+
+    int count() {
+        return count;
+    }
+
+    List<Diagnostic> diagnostics() {
+        return kept;
+    }
+
+    void flush() {
+        if (err != null && count > kept.size()) {
+            err.println((file != null ? file + ": " : "") + (count - kept.size()) + " more errors not shown.");
+        }
+
+        kept.clear();
+        count = 0;
+    }
+}
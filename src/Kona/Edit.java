@@ -0,0 +1,14 @@
+package Kona;
+
+// A change to a source: the "removed" chars at offset are replaced by "inserted".
+class Edit {
+    final int offset;
+    final int removed;
+    final String inserted;
+
+    Edit(int offset, int removed, String inserted) {
+        this.offset = offset;
+        this.removed = removed;
+        this.inserted = inserted;
+    }
+}
@@ -2,7 +2,7 @@ package Kona;
 
 import java.util.List;
 
-abstract class Expr {
+abstract sealed class Expr {
     interface Visitor<R> {
         R visitAssignExpr(Assign expr);
         R visitBinaryExpr(Binary expr);
@@ -23,7 +23,7 @@ abstract class Expr {
         R visitUnaryExpr(Unary expr);
         R visitVariableExpr(Variable expr);
     }
-    static class Assign extends Expr {
+    static final class Assign extends Expr {
         Assign(Token name, Expr value) {
             this.name = name;
             this.value = value;
@@ -37,7 +37,7 @@ abstract class Expr {
         final Token name;
         final Expr value;
     }
-    static class Binary extends Expr {
+    static final class Binary extends Expr {
         Binary(String type, Expr left, Token operator, Expr right) {
             this.type = type;
             this.left = left;
@@ -55,7 +55,7 @@ abstract class Expr {
         final Token operator;
         final Expr right;
     }
-    static class Cast extends Expr {
+    static final class Cast extends Expr {
         Cast(Expr.Type type, Expr expression) {
             this.type = type;
             this.expression = expression;
@@ -69,7 +69,7 @@ abstract class Expr {
         final Expr.Type type;
         final Expr expression;
     }
-    static class Type extends Expr {
+    static final class Type extends Expr {
         Type(List<Object> type) {
             this.type = type;
         }
@@ -81,7 +81,7 @@ abstract class Expr {
 
         final List<Object> type;
     }
-    static class Call extends Expr {
+    static final class Call extends Expr {
         Call(Expr callee, Expr.Args arguments) {
             this.callee = callee;
             this.arguments = arguments;
@@ -95,7 +95,7 @@ abstract class Expr {
         final Expr callee;
         final Expr.Args arguments;
     }
-    static class Args extends Expr {
+    static final class Args extends Expr {
         Args(List<Expr> arguments) {
             this.arguments = arguments;
         }
@@ -107,7 +107,7 @@ abstract class Expr {
 
         final List<Expr> arguments;
     }
-    static class Get extends Expr {
+    static final class Get extends Expr {
         Get(Expr object, Token name) {
             this.object = object;
             this.name = name;
@@ -121,7 +121,7 @@ abstract class Expr {
         final Expr object;
         final Token name;
     }
-    static class Instance extends Expr {
+    static final class Instance extends Expr {
         Instance(Token instanceName, Expr.InstanceFields instanceFields) {
             this.instanceName = instanceName;
             this.instanceFields = instanceFields;
@@ -135,7 +135,7 @@ abstract class Expr {
         final Token instanceName;
         final Expr.InstanceFields instanceFields;
     }
-    static class InstanceFields extends Expr {
+    static final class InstanceFields extends Expr {
         InstanceFields(List<Expr.InstanceField> instanceFields) {
             this.instanceFields = instanceFields;
         }
@@ -147,7 +147,7 @@ abstract class Expr {
 
         final List<Expr.InstanceField> instanceFields;
     }
-    static class InstanceField extends Expr {
+    static final class InstanceField extends Expr {
         InstanceField(Token name, Expr value) {
             this.name = name;
             this.value = value;
@@ -161,7 +161,7 @@ abstract class Expr {
         final Token name;
         final Expr value;
     }
-    static class Grouping extends Expr {
+    static final class Grouping extends Expr {
         Grouping(String type, Expr expression) {
             this.type = type;
             this.expression = expression;
@@ -175,9 +175,26 @@ abstract class Expr {
         final String type;
         final Expr expression;
     }
-    static class Literal extends Expr {
+    static final class Literal extends Expr {
         Literal(Token value) {
             this.value = value;
+            this.floating = false;
+            this.integer = 0;
+            this.real = 0;
+        }
+
+        Literal(Token value, long integer) {
+            this.value = value;
+            this.floating = false;
+            this.integer = integer;
+            this.real = 0;
+        }
+
+        Literal(Token value, double real) {
+            this.value = value;
+            this.floating = true;
+            this.integer = 0;
+            this.real = real;
         }
 
         @Override
@@ -186,8 +203,12 @@ abstract class Expr {
         }
 
         final Token value;
+        // the value of a number, in real if floating and in integer if not
+        final boolean floating;
+        final long integer;
+        final double real;
     }
-    static class Logical extends Expr {
+    static final class Logical extends Expr {
         Logical(Expr left, Token operator, Expr right) {
             this.left = left;
             this.operator = operator;
@@ -203,7 +224,7 @@ abstract class Expr {
         final Token operator;
         final Expr right;
     }
-    static class Set extends Expr {
+    static final class Set extends Expr {
         Set(Expr object, Token name, Expr value) {
             this.object = object;
             this.name = name;
@@ -219,7 +240,7 @@ abstract class Expr {
         final Token name;
         final Expr value;
     }
-    static class Super extends Expr {
+    static final class Super extends Expr {
         Super(Token keyword, Token method) {
             this.keyword = keyword;
             this.method = method;
@@ -233,7 +254,7 @@ abstract class Expr {
         final Token keyword;
         final Token method;
     }
-    static class Self extends Expr {
+    static final class Self extends Expr {
         Self(Token keyword) {
             this.keyword = keyword;
         }
@@ -245,7 +266,7 @@ abstract class Expr {
 
         final Token keyword;
     }
-    static class Unary extends Expr {
+    static final class Unary extends Expr {
         Unary(String type, Token operator, Expr right) {
             this.type = type;
             this.operator = operator;
@@ -261,7 +282,7 @@ abstract class Expr {
         final Token operator;
         final Expr right;
     }
-    static class Variable extends Expr {
+    static final class Variable extends Expr {
         Variable(Token name) {
             this.name = name;
         }
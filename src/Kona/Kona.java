@@ -3,64 +3,46 @@ package Kona;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class Kona {
-    static boolean hadError = false;
-
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: kona [script]");
+        boolean check = args.length > 0 && args[0].equals("--check");
+        List<String> paths = Arrays.asList(args).subList(check ? 1 : 0, args.length);
+        if (args.length == 1 && args[0].equals("--daemon")) {
+            Daemon.serve(Daemon.socket());
+        } else if (paths.contains("--daemon") || paths.contains("--check") || check && paths.isEmpty()) {
+            System.out.println("Usage: kona [--check] [script | files, directories and globs...] | --daemon");
             System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        } else if (!check && paths.size() == 1 && !Project.isGlob(paths.get(0)) && !Files.isDirectory(Paths.get(paths.get(0)))) {
+            runFile(paths.get(0));
+        } else if (!paths.isEmpty()) {
+            runProject(paths, check);
         } else {
             // todo: display menu
         }
     }
 
-    private static void runFile(String path) throws IOException {
-        if (hadError) System.exit(65);
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-    }
-
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        System.out.println(tokens);
-
-        Parser parser = new Parser(tokens);
-        Stmt statements = parser.parse();
-
-        // Stop if there was a syntax error.
-        if (hadError) return;
-
-        System.out.println(new AstPrinter().print(statements));   // book says replace line with: interpreter.interpret(statements);
-        // System.out.println(new ZigOutput().print(statements));
+    // every file in one process, on all cores
+    private static void runProject(List<String> paths, boolean check) throws IOException {
+        Project project = new Project(ForkJoinPool.commonPool(), check, System.out, System.err, Charset.defaultCharset());
+        int status = project.compile(Project.sources(paths));
+        if (status != 0) System.exit(status);
     }
 
-    static void error(int line, int column, int length, String message) {
-        report(line, column, length, message);
-    }
-
-    // todo: show error lines
-    private static void report(int line, int column, int length, String message) {
-        System.err.println(line + ":" + column + " error: " + message);
-        hadError = true;
-    }
-
-    private static void reportEOF(int line, String message) {
-        System.err.println("line: " + line + ", error: end of file, " + message);
-        hadError = true;
-    }
-
-    static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            reportEOF(token.line, message);
-        } else {
-            report(token.line, token.column, token.length, message);
+    private static void runFile(String path) throws IOException {
+        // a running daemon compiles it warm, without one it's compiled here
+        Path file = Paths.get(path);
+        int status = Daemon.compile(Daemon.socket(), file, Charset.defaultCharset(), System.out, System.err);
+        if (status < 0) {
+            CompilationSession session = new CompilationSession();
+            session.compile(file);
+            status = session.hadError() ? 65 : 0;
         }
+        if (status != 0) System.exit(status);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,290 @@
+package Kona;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// Tokens and trees of sources that scanned and parsed without errors, kept in a directory under
+// the XXH64 hash of the source bytes, so a file that didn't change since it was last compiled is
+// neither scanned nor parsed. The hash is seeded with the build of the compiler and the options
+// that change what a source parses to, so entries of another build or of other options are never
+// read. An entry holds the source, the flattened tree and the tokens, the tokens read over the
+// source's bytes again so lexemes are still cut out of them lazily. It is only taken when its
+// source is the same bytes, two sources of the same hash don't get each other's trees. Sources
+// with errors aren't kept: their diagnostics need the scan and parse anyway.
+//
+// Entries are written to a temporary file and moved into place, so compiles sharing the directory
+// never read half an entry. An entry ends with the hash of what comes before it, one that doesn't
+// check out is taken as a miss.
+class ParseCache {
+    private static final int MAGIC = 0x4b4f4e41;
+    // the magic number, the build, the max depth and the size of the source
+    private static final int HEADER = 20;
+
+    // the directory named by -Dkona.cache, null without one or if the build can't be told
+    static final ParseCache CONFIGURED = configured();
+
+    static class Entry {
+        final TokenBuffer tokens;
+        final Stmt tree;
+
+        Entry(TokenBuffer tokens, Stmt tree) {
+            this.tokens = tokens;
+            this.tree = tree;
+        }
+    }
+
+    private final Path directory;
+    // the hash of the compiler's classes
+    private final long build;
+
+    ParseCache(Path directory, long build) {
+        this.directory = directory;
+        this.build = build;
+    }
+
+    private static ParseCache configured() {
+        String directory = System.getProperty("kona.cache");
+        if (directory == null) return null;
+
+        Long build = build();
+        return build == null ? null : new ParseCache(Path.of(directory), build);
+    }
+
+    // The hash of the jar or the class files the compiler was loaded from, so any change to the
+    // scanner, the parser or how entries are written makes a build of its own. Null if they can't
+    // be found or read.
+    private static Long build() {
+        try {
+            CodeSource code = ParseCache.class.getProtectionDomain().getCodeSource();
+            if (code == null) return null;
+
+            Path location = Path.of(code.getLocation().toURI());
+            List<Path> classes = List.of(location);
+            if (Files.isDirectory(location)) {
+                Path package_directory = location.resolve(ParseCache.class.getPackageName().replace('.', '/'));
+                try (Stream<Path> files = Files.list(package_directory)) {
+                    classes = files.filter(file -> file.toString().endsWith(".class")).sorted().toList();
+                }
+            }
+
+            long hash = 0;
+            for (Path file : classes) {
+                byte[] bytes = Files.readAllBytes(file);
+                hash = XXHash64.hash(ByteBuffer.wrap(bytes), 0, bytes.length, hash);
+            }
+            return hash;
+        } catch (IOException | URISyntaxException | RuntimeException unknown) {
+            return null;
+        }
+    }
+
+    // The entry of the source parsed with max_depth, null if there is none. The tokens are only
+    // read when there is source text to read them over, and the tree makes its declarations as
+    // they are asked for.
+    Entry get(ByteBuffer source, int max_depth, Symbols symbols, SourceText text) {
+        int length = source.limit();
+        ByteBuffer entry;
+        try {
+            entry = ByteBuffer.wrap(Files.readAllBytes(path(source, max_depth)));
+        } catch (IOException miss) {
+            return null;
+        }
+
+        try {
+            int end = entry.limit() - Long.BYTES;
+            if (end < HEADER + length || XXHash64.hash(entry, 0, end, build) != entry.getLong(end)) return null;
+            if (entry.getInt(0) != MAGIC || entry.getLong(4) != build || entry.getInt(12) != max_depth || entry.getInt(16) != length) return null;
+            if (entry.slice(HEADER, length).mismatch(source.slice(0, length)) >= 0) return null;
+
+            Input in = new Input(entry.limit(end).position(HEADER + length), symbols);
+            AstArena arena = AstArena.read(in);
+            TokenBuffer tokens = text == null ? null : TokenBuffer.read(in, text);
+            return new Entry(tokens, arena.declarations(0));
+        } catch (RuntimeException broken) {
+            return null;
+        }
+    }
+
+    // keeps the tokens and tree of the source parsed with max_depth, as well as it can: a cache
+    // that can't be written only makes compiles slower
+    void put(ByteBuffer source, int max_depth, TokenBuffer tokens, AstArena tree) {
+        Output out = new Output(tokens.symbols());
+        out.writeInt(MAGIC);
+        out.writeLong(build);
+        out.writeInt(max_depth);
+        out.writeInt(source.limit());
+        out.writeBytes(source);
+        tree.write(out);
+        tokens.write(out);
+        out.writeLong(XXHash64.hash(ByteBuffer.wrap(out.bytes, 0, out.size), 0, out.size, build));
+
+        Path path = path(source, max_depth);
+        Path temporary = null;
+        try {
+            Files.createDirectories(path.getParent());
+            temporary = Files.createTempFile(path.getParent(), "entry", ".tmp");
+            Files.write(temporary, Arrays.copyOf(out.bytes, out.size));
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | UnsupportedOperationException error) {
+            try {
+                if (temporary != null) Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+                // left for whoever clears the directory
+            }
+        }
+    }
+
+    // Where the entry of the source goes. Entries are spread over directories by the first byte of
+    // the hash.
+    private Path path(ByteBuffer source, int max_depth) {
+        long seed = XXHash64.hash(ByteBuffer.allocate(12).putLong(build).putInt(max_depth), 0, 12, 0);
+        String name = String.format("%016x", XXHash64.hash(source, 0, source.limit(), seed));
+        return directory.resolve(name.substring(0, 2)).resolve(name);
+    }
+
+    // An entry as it is written. Most numbers are varints, a byte when they are small, and a name
+    // is only written the first time, after that by its place in the entry's names.
+    static class Output {
+        private byte[] bytes = new byte[1 << 12];
+        private int size = 0;
+        private final Map<Integer, Integer> names = new HashMap<>();
+        // where the ids written are from
+        private final Symbols symbols;
+
+        Output(Symbols symbols) {
+            this.symbols = symbols;
+        }
+
+        void writeByte(int b) {
+            if (size == bytes.length) bytes = Arrays.copyOf(bytes, size * 2);
+            bytes[size++] = (byte) b;
+        }
+
+        void writeInt(int value) {
+            for (int shift = 24; shift >= 0; shift -= 8) writeByte(value >>> shift);
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        // 7 bits a byte, the high bit set on all but the last
+        void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                writeByte(value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        // small negative numbers take a byte too
+        void writeSigned(int value) {
+            writeVarint(value << 1 ^ value >> 31);
+        }
+
+        // null as 0, others as their UTF-8 length plus one and the bytes
+        void writeString(String string) {
+            if (string == null) {
+                writeVarint(0);
+                return;
+            }
+
+            byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+            writeVarint(utf8.length + 1);
+            grow(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+        }
+
+        // the buffer's bytes from 0 to its limit, as they are
+        void writeBytes(ByteBuffer buffer) {
+            int length = buffer.limit();
+            grow(length);
+            buffer.get(0, bytes, size, length);
+            size += length;
+        }
+
+        private void grow(int length) {
+            if (size + length > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(size + length, size * 2));
+        }
+
+        // a Symbols id, by name
+        void writeSymbol(int symbol) {
+            Integer index = names.get(symbol);
+            if (index != null) {
+                writeVarint(index + 1);
+                return;
+            }
+
+            names.put(symbol, names.size());
+            writeVarint(0);
+            writeString(symbols.name(symbol));
+        }
+    }
+
+    // An entry being read, with the ids its names have in the session's table as they come.
+    static class Input {
+        private final ByteBuffer bytes;
+        final Symbols symbols;
+        private int[] ids = new int[64];
+        private int id_count = 0;
+
+        Input(ByteBuffer bytes, Symbols symbols) {
+            this.bytes = bytes;
+            this.symbols = symbols;
+        }
+
+        byte readByte() {
+            return bytes.get();
+        }
+
+        long readLong() {
+            return bytes.getLong();
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+        }
+
+        int readSigned() {
+            int value = readVarint();
+            return value >>> 1 ^ -(value & 1);
+        }
+
+        String readString() {
+            int length = readVarint() - 1;
+            if (length < 0) return null;
+
+            String string = new String(bytes.array(), bytes.arrayOffset() + bytes.position(), length, StandardCharsets.UTF_8);
+            bytes.position(bytes.position() + length);
+            return string;
+        }
+
+        int readSymbol() {
+            int index = readVarint();
+            if (index > 0) return ids[index - 1];
+
+            int symbol = symbols.intern(readString());
+            if (id_count == ids.length) ids = Arrays.copyOf(ids, id_count * 2);
+            ids[id_count++] = symbol;
+            return symbol;
+        }
+    }
+}
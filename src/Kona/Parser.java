@@ -1,38 +1,464 @@
 package Kona;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import static Kona.TokenType.*;
 
 class Parser {
-    private static class ParseError extends RuntimeException {}
+    // Thrown to get out of a statement that can't be parsed. It carries nothing, so one without a
+    // stack trace is made once and thrown every time.
+    private static class ParseError extends RuntimeException {
+        ParseError() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final ParseError PARSE_ERROR = new ParseError();
+
+    // a top-level declaration from the last parse, with the tokens it was parsed from and the
+    // indentation level before and after it, which is what reparse needs to put it back in place
+    private static class Declaration {
+        final int start;
+        final int end;
+        final int level_before;
+        final int level_after;
+        final boolean clean;
+        // the blocks in it that parsed without errors, for reparse to take again
+        final List<Block> blocks;
+        // the line it starts on now
+        final int line;
+        // its tree as it was made, where the declaration started then and on what line; its
+        // Tokens are start - made_at tokens and line - made_line lines behind where they are now
+        private Stmt tree;
+        private int made_at;
+        private int made_line;
+
+        Declaration(Stmt tree, int start, int end, int level_before, int level_after, boolean clean,
+                    List<Block> blocks, int line, int made_at, int made_line) {
+            this.tree = tree;
+            this.start = start;
+            this.end = end;
+            this.level_before = level_before;
+            this.level_after = level_after;
+            this.clean = clean;
+            this.blocks = blocks;
+            this.line = line;
+            this.made_at = made_at;
+            this.made_line = made_line;
+        }
+
+        // The tree, made again from the tree before if an edit moved the declaration. That is left
+        // until the tree is asked for, so an edit that moves the rest of the file costs no more than
+        // one that doesn't.
+        Stmt stmt() {
+            if (start != made_at || line != made_line) {
+                tree = AstArena.moved(tree, start - made_at, line - made_line);
+                made_at = start;
+                made_line = line;
+            }
+
+            return tree;
+        }
+
+        // the declaration "shift" tokens further on, starting on the line it starts on there
+        Declaration moved(int shift, TokenBuffer tokens) {
+            int moved_line = tokens.line(start + shift);
+            if (shift == 0 && moved_line == line) return this;
+            return new Declaration(tree, start + shift, end + shift, level_before, level_after, clean, blocks, moved_line, made_at, made_line);
+        }
+    }
+
+    // A for, if or while statement waiting for its blocks, with what it has before the one being
+    // parsed; of no kind for a block on its own.
+    private static class Opener {
+        final TokenType kind;
+        // for
+        Token array_name;
+        Token item_name;
+        Token item_index;
+        // if and while
+        Expr condition;
+        // if, the branches parsed so far, the condition of the "elif" whose block is being
+        // parsed, and whether it's the "else" block
+        List<Stmt> then_branch;
+        final List<Stmt.ElseIf> else_ifs = new ArrayList<>();
+        Expr else_if_condition;
+        boolean else_branch;
+
+        Opener(TokenType kind) {
+            this.kind = kind;
+        }
+    }
+
+    // An instance whose fields are being parsed, and where: at a field, after a field's value, or
+    // at the start of a line of its indented fields.
+    private static class OpenInstance {
+        static final int FIELD = 0;
+        static final int AFTER_VALUE = 1;
+        static final int LINE = 2;
+
+        final Token name;
+        final List<Expr.InstanceField> fields = new ArrayList<>();
+        Boolean atleastOneField = false;
+        boolean indented = false;
+        int state = FIELD;
+        Token field_name;
+
+        OpenInstance(Token name) {
+            this.name = name;
+        }
+
+        void add(Expr value) {
+            fields.add(new Expr.InstanceField(field_name, value));
+            atleastOneField = true;
+        }
 
-    private final List<Token> tokens;
+        Expr made() {
+            return new Expr.Instance(name, new Expr.InstanceFields(fields));
+        }
+    }
+
+    // a block being parsed, the token it started at and the errors there were before it
+    private static class OpenBlock {
+        final Opener opener;
+        final int start;
+        final int errors_before;
+        final List<Stmt> statements = new ArrayList<>();
+
+        OpenBlock(Opener opener, int start, int errors_before) {
+            this.opener = opener;
+            this.start = start;
+            this.errors_before = errors_before;
+        }
+    }
+
+    // A block that parsed without errors, from and to tokens counted from the start of the
+    // declaration it is in, with the indentation level and depth it was parsed at. made_at and
+    // made_line are where it started when its statements were made, as for Declaration.
+    private static class Block {
+        final List<Stmt> statements;
+        final int start;
+        final int end;
+        final int level;
+        final int depth;
+        final int made_at;
+        final int made_line;
+
+        Block(List<Stmt> statements, int start, int end, int level, int depth, int made_at, int made_line) {
+            this.statements = statements;
+            this.start = start;
+            this.end = end;
+            this.level = level;
+            this.depth = depth;
+            this.made_at = made_at;
+            this.made_line = made_line;
+        }
+    }
+
+    // how far behind and ahead of current the parser looks at tokens
+    private static final int LOOK_BEHIND = 2;
+    private static final int LOOK_AHEAD = 3;
+    // binding power of the binary operators by TokenType ordinal, 0 for anything else
+    private static final int[] PRECEDENCE = new int[TokenType.values().length];
+    private static final int FACTOR = 6;
+
+    static {
+        PRECEDENCE[OR.ordinal()] = 1;
+        PRECEDENCE[AND.ordinal()] = 2;
+        PRECEDENCE[BANG_EQUAL.ordinal()] = PRECEDENCE[EQUAL_EQUAL.ordinal()] = 3;
+        PRECEDENCE[GREATER.ordinal()] = PRECEDENCE[GREATER_EQUAL.ordinal()] = 4;
+        PRECEDENCE[LESS.ordinal()] = PRECEDENCE[LESS_EQUAL.ordinal()] = 4;
+        PRECEDENCE[MINUS.ordinal()] = PRECEDENCE[PLUS.ordinal()] = 5;
+        PRECEDENCE[SLASH.ordinal()] = PRECEDENCE[STAR.ordinal()] = FACTOR;
+    }
+
+    // the fewest tokens worth parsing on a thread of their own
+    private static final int MIN_PART = 1 << 14;
+    // how deep expressions and blocks may nest by default, well within what a thread with the
+    // default stack size can take
+    static final int MAX_DEPTH = 200;
+
+    private final TokenSource tokens;
+    private final int max_depth;
+    private final Diagnostics diagnostics;
     private int current = 0;
     private int indent_level = 0;
-    private boolean indent_set = false;
-    // true means tabs
-    private boolean tabs_or_spaces = true;
-    private int spaces = 0;
+    private int depth = 0;
+    private int errors = 0;
+    private List<Declaration> declarations = new ArrayList<>();
+    // where top-level declarations go as they are parsed instead of declarations, for parseFlat
+    private AstArena arena;
+    // the clean blocks of the declaration being parsed and where it started, null when they
+    // aren't kept
+    private List<Block> blocks;
+    private int declaration_start;
+    // while reparsing, the declarations of the parse before and the change since
+    private List<Declaration> previous;
+    private TokenBuffer.Change change;
+    // the blocks being parsed, see blocks, and whether the statement being parsed only opens its block
+    private final List<OpenBlock> open_blocks = new ArrayList<>();
+    private boolean opening = false;
+    // a part parsed on the pool stops at the first top-level declaration from limit on
+    private int limit = Integer.MAX_VALUE;
+    // operands waiting for the operator after them to be applied, shared by the expressions being
+    // parsed, each using the part above where the stack was when it started
+    private Expr[] operands = new Expr[16];
+    private Token[] operators = new Token[16];
+    private int operand_top = 0;
+
+
+    Parser(TokenSource tokens) {
+        this(tokens, new CompilationSession());
+    }
 
+    // reports to the session's diagnostics and nests as deep as its options allow
+    Parser(TokenSource tokens, CompilationSession session) {
+        this(tokens, session.max_depth, session.diagnostics);
+    }
 
-    Parser(List<Token> tokens) {
+    private Parser(TokenSource tokens, int max_depth, Diagnostics diagnostics) {
         this.tokens = tokens;
+        this.max_depth = max_depth;
+        this.diagnostics = diagnostics;
     }
 
     Stmt parse() {
-        List<Stmt> statements = new ArrayList<>();
-        while (!isAtEnd()) {
-            statements.add(declaration());
+        current = 0;
+        indent_level = 0;
+        declarations = new ArrayList<>();
+        parseRest();
+        diagnostics.flush();
+        return statements();
+    }
+
+    // Parses big token buffers in parts on the pool, giving the same tree and diagnostics as parse.
+    // The tokens are cut where a fun, class or template starts a line without indentation. A part
+    // is only taken if it parsed without errors and stopped right at the next cut at indentation
+    // level 0, which is where parse would be after the declarations before it. From the first part
+    // that didn't, the rest is parsed here in one go, so errors are reported in order.
+    Stmt parse(ForkJoinPool pool) {
+        parseAll(pool);
+        return statements();
+    }
+
+    // Parses like parse(pool), flattening each top-level declaration into an arena over the tokens
+    // as soon as it's parsed, parts parsed on the pool into arenas of their own. Only a declaration
+    // at a time is held as objects, and the arena keeps the tokens as indexes when they are in a
+    // TokenBuffer. The Declarations is the arena's node 0.
+    AstArena parseFlat(ForkJoinPool pool) {
+        TokenBuffer buffer = tokens instanceof TokenBuffer whole ? whole : null;
+        arena = new AstArena(buffer, buffer == null ? 1024 : Math.max(buffer.size(), 1));
+        arena.beginDeclarations();
+        try {
+            parseAll(pool);
+            arena.endDeclarations();
+            return arena;
+        } finally {
+            arena = null;
+        }
+    }
+
+    private void parseAll(ForkJoinPool pool) {
+        current = 0;
+        indent_level = 0;
+        declarations = new ArrayList<>();
+        int[] cuts = null;
+        if (tokens instanceof TokenBuffer buffer && pool.getParallelism() >= 2 && buffer.size() >= 2 * MIN_PART) {
+            cuts = cuts(buffer, Math.max(MIN_PART, buffer.size() / (pool.getParallelism() * 4)));
+        }
+        if (cuts == null || cuts.length < 3) {
+            parseRest();
+            diagnostics.flush();
+            return;
+        }
+
+        List<ForkJoinTask<Parser>> parts = new ArrayList<>();
+        for (int i = 0; i + 1 < cuts.length; i++) {
+            // a part keeps its errors to itself
+            Parser part = new Parser(tokens, max_depth, Diagnostics.counting());
+            part.current = cuts[i];
+            part.limit = cuts[i + 1];
+            if (arena != null) {
+                part.arena = new AstArena((TokenBuffer) tokens, 1024);
+                part.arena.beginDeclarations();
+            }
+            parts.add(pool.submit(part::parsePart));
+        }
+
+        for (ForkJoinTask<Parser> task : parts) {
+            Parser part = task.join();
+            if (part.errors > 0 || part.current != part.limit || part.indent_level != 0) break;
+            if (arena != null) {
+                arena.addDeclarations(part.arena);
+            } else {
+                declarations.addAll(part.declarations);
+            }
+            current = part.current;
+        }
+
+        parseRest();
+        diagnostics.flush();
+    }
+
+    // the first token of each part, with the EOF token last
+    private static int[] cuts(TokenBuffer tokens, int part_size) {
+        int end = tokens.size() - 1;
+        int[] cuts = new int[end / part_size + 2];
+        int count = 1;
+        for (int i = part_size; i < end; i++) {
+            if (tokens.type(i - 1) != NEWLINE) continue;
+
+            TokenType type = tokens.type(i);
+            if (type == FUN || type == CLASS || type == TEMPLATE || (type == MUT && tokens.type(i + 1) == CLASS)) {
+                cuts[count++] = i;
+                i += part_size - 1;
+            }
+        }
+
+        cuts[count++] = end;
+        return Arrays.copyOf(cuts, count);
+    }
+
+    private Parser parsePart() {
+        try {
+            parseRest();
+        } catch (RuntimeException error) {
+            // parse will get to it again and fail the same way if it really is there
+            errors++;
+        }
+
+        return this;
+    }
+
+    private void parseRest() {
+        while (current < limit && !isAtEnd()) {
+            Declaration declaration = topLevel();
+            if (arena != null) {
+                arena.add(declaration.stmt());
+            } else {
+                declarations.add(declaration);
+            }
+        }
+    }
+
+    // Parses the tokens again after Scanner.rescan changed them. Top-level declarations that parsed
+    // without errors are kept when neither they nor the tokens the parser looked at around them were
+    // touched; the rest, starting with the one enclosing the edit, are parsed again. The ones after
+    // the edit are kept wherever the edit moved them, their trees are moved along when they're looked
+    // at. Inside the declarations parsed again, the blocks the edit didn't touch are kept the same
+    // way, see keptBlock.
+    Stmt reparse(TokenBuffer.Change change) {
+        TokenBuffer buffer = (TokenBuffer) tokens;
+        List<Declaration> previous = declarations;
+        int shift = change.added - change.removed;
+        int tail = change.from + change.removed;
+        int next = 0;
+
+        current = 0;
+        indent_level = 0;
+        declarations = new ArrayList<>();
+        while (next < previous.size()) {
+            Declaration kept = previous.get(next);
+            if (!kept.clean || kept.end + LOOK_AHEAD >= change.from) break;
+            declarations.add(kept);
+            current = kept.end;
+            indent_level = kept.level_after;
+            next++;
+        }
+
+        this.previous = previous;
+        this.change = change;
+        try {
+            while (!isAtEnd()) {
+                int start = current - shift;
+                while (next < previous.size() && previous.get(next).start < start) next++;
+
+                Declaration kept = next < previous.size() ? previous.get(next) : null;
+                if (kept != null && kept.clean && kept.start == start && kept.start - LOOK_BEHIND >= tail
+                        && kept.level_before == indent_level) {
+                    declarations.add(kept.moved(shift, buffer));
+                    current = kept.end + shift;
+                    indent_level = kept.level_after;
+                    next++;
+                } else {
+                    declarations.add(topLevel());
+                }
+            }
+        } finally {
+            this.previous = null;
+            this.change = null;
+        }
+
+        diagnostics.flush();
+        return statements();
+    }
+
+    private Declaration topLevel() {
+        int start = current;
+        int level = indent_level;
+        int errors_before = errors;
+        // only kept for trees that reparse can take blocks from
+        TokenBuffer buffer = arena == null && tokens instanceof TokenBuffer whole ? whole : null;
+        blocks = buffer == null ? null : new ArrayList<>();
+        declaration_start = start;
+        Stmt stmt;
+        try {
+            stmt = declaration();
+        } catch (StackOverflowError overflow) {
+            // only on threads with a stack too small for max_depth, the declaration is dropped
+            error(peek(), "Too deeply nested to parse.");
+            indent_level = 0;
+            synchronize();
+            stmt = null;
         }
 
-        return new Stmt.Declarations(statements);
+        // A statement that failed inside an indented part can leave indent_level above 0, and
+        // nothing parses at the top level then; without this the loop above would never end.
+        if (current == start && indent_level > 0) indent_level = 0;
+
+        List<Block> clean_blocks = blocks;
+        blocks = null;
+        int line = buffer == null ? 0 : buffer.line(start);
+        return new Declaration(stmt, start, current, level, indent_level, errors == errors_before,
+                clean_blocks, line, start, line);
+    }
+
+    private Stmt statements() {
+        // the trees are only made when they're looked at, see Declaration.stmt
+        List<Declaration> made = declarations;
+        return new Stmt.Declarations(new AbstractList<>() {
+            @Override
+            public Stmt get(int index) {
+                return made.get(index).stmt();
+            }
+
+            @Override
+            public int size() {
+                return made.size();
+            }
+        });
     }
 
     private Expr expression() {
-        return assignment();
+        enter();
+        try {
+            return assignment();
+        } finally {
+            depth--;
+        }
+    }
+
+    // one level deeper into expressions or blocks
+    private void enter() {
+        if (++depth > max_depth) {
+            depth--;
+            throw error(peek(), "Nesting is deeper than " + max_depth + " levels.");
+        }
     }
     // complete
     private Stmt declaration() {
@@ -51,11 +477,13 @@ class Parser {
     }
     // complete
     private Stmt templateDeclaration() {
-        Token name = consume(IDENTIFIER, "Expect template name.");
+        consume(IDENTIFIER, "Expect template name.");
+        Token name = previous();
         Token parent = null;
 
         if (match(EXT)) {
-            parent = consume(IDENTIFIER, "Expect parent template name after \"ext\".");
+            consume(IDENTIFIER, "Expect parent template name after \"ext\".");
+            parent = previous();
         }
 
         consume(NEWLINE, "Template header must occupy the rest of the line.");
@@ -63,14 +491,6 @@ class Parser {
         indent_level++;
 
         if (isIndents() && (checkNext(IDENTIFIER) || (checkNext(DEF) && checkNextNext(IDENTIFIER)))) {
-            if (!indent_set) {
-                if (check(SPACES_INDENT)) {
-                    tabs_or_spaces = false;
-                    spaces = peek().length;
-                }
-                indent_set = true;
-            }
-
             while(true) {
                 consumeIndents();
                 if (match(IDENTIFIER)) {
@@ -94,15 +514,6 @@ class Parser {
         List<Stmt.TemplateMethod> methods = new ArrayList<>();
 
         if (isIndents() && (checkNext(FUN) || (checkNext(DEF) && checkNextNext(FUN)))) {
-            if (!indent_set) {
-                if (check(SPACES_INDENT)) {
-                    tabs_or_spaces = false;
-                    spaces = peek().length;
-                }
-
-                indent_set = true;
-            }
-
             while(true) {
                 if (isIndents()) {
                     consumeIndents();
@@ -147,17 +558,20 @@ class Parser {
             advance();
         }
 
-        Token name = consume(IDENTIFIER, "Expect class name.");
+        consume(IDENTIFIER, "Expect class name.");
+        Token name = previous();
 
         Token parent = null;
         if (match(EXT)) {
-            parent = consume(IDENTIFIER, "Expect parent class name after \"ext\".");
+            consume(IDENTIFIER, "Expect parent class name after \"ext\".");
+            parent = previous();
         }
 
         List<Token> templates = new ArrayList<>();
         if (match(OF)) {
             do {
-                templates.add(consume(IDENTIFIER, "Expect template name."));
+                consume(IDENTIFIER, "Expect template name.");
+                templates.add(previous());
             } while (match(COMMA));
         }
         // empty class handled by compiler checks
@@ -169,19 +583,12 @@ class Parser {
         List<Token> req_templates = new ArrayList<>();
 
         if (isIndents() && checkNext(REQ)) {
-            if (!indent_set) {
-                if (check(SPACES_INDENT)) {
-                    tabs_or_spaces = false;
-                    spaces = peek().length;
-                }
-                indent_set = true;
-            }
-
             consumeIndents();
             advance();
 
             do {
-                req_templates.add(consume(IDENTIFIER, "Expected template name."));
+                consume(IDENTIFIER, "Expected template name.");
+                req_templates.add(previous());
             } while (match(COMMA));
 
             if (!isAtEnd()) {
@@ -197,14 +604,6 @@ class Parser {
             Token mut = null;
 
             if (isIndents() && checkNext(PRIV) && checkNextNext(MUT) && checkNextNextNext(IDENTIFIER)) {
-                if (!indent_set) {
-                    if (check(SPACES_INDENT)) {
-                        tabs_or_spaces = false;
-                        spaces = peek().length;
-                    }
-                    indent_set = true;
-                }
-
                 consumeIndents();
                 priv = peek();
                 advance();
@@ -214,14 +613,6 @@ class Parser {
                 advance();
 
             } else if (isIndents() && checkNext(MUT) && checkNextNext(IDENTIFIER)) {
-                if (!indent_set) {
-                    if (check(SPACES_INDENT)) {
-                        tabs_or_spaces = false;
-                        spaces = peek().length;
-                    }
-                    indent_set = true;
-                }
-
                 consumeIndents();
                 mut = peek();
                 advance();
@@ -229,14 +620,6 @@ class Parser {
                 advance();
 
             } else if (isIndents() && checkNext(PRIV) && checkNextNext(IDENTIFIER)) {
-                if (!indent_set) {
-                    if (check(SPACES_INDENT)) {
-                        tabs_or_spaces = false;
-                        spaces = peek().length;
-                    }
-                    indent_set = true;
-                }
-
                 consumeIndents();
                 priv = peek();
                 advance();
@@ -244,14 +627,6 @@ class Parser {
                 advance();
 
             } else if (isIndents() && checkNext(IDENTIFIER)) {
-                if (!indent_set) {
-                    if (check(SPACES_INDENT)) {
-                        tabs_or_spaces = false;
-                        spaces = peek().length;
-                    }
-                    indent_set = true;
-                }
-
                 consumeIndents();
                 fields.add(new Stmt.Field(priv, mut, peek()));
                 advance();
@@ -280,15 +655,6 @@ class Parser {
 
         while(true) {
             if (isIndents()) {
-                if (!indent_set) {
-                    if (check(SPACES_INDENT)) {
-                        tabs_or_spaces = false;
-                        spaces = peek().length;
-                    }
-
-                    indent_set = true;
-                }
-
                 consumeIndents();
                 Token override = null;
 
@@ -324,46 +690,38 @@ class Parser {
     }
 
     // complete
+    // after an error it starts over on the statement synchronize stopped at, if it did
     private Stmt statement() {
-        if (!indent_set && current > 0 && isIndents()) {
-            if (check(SPACES_INDENT)) {
-                tabs_or_spaces = false;
-                spaces = peek().length;
-            }
-            indent_set = true;
-        }
-
-        try {
-            if (indent_level > 0) {
-                if (isIndents()) {
-                    isIndentType();
-                    if (indentsLevel() < indent_level) {
+        while (true) {
+            try {
+                if (indent_level > 0) {
+                    if (isIndents()) {
+                        if (indentsLevel() < indent_level) {
+                            return null;
+                        } else if (indentsLevel() == indent_level) {
+                            advance();
+                        } else if (indentsLevel() > indent_level) {
+                            throw error(peek(), "incorrect indentation");
+                        }
+                    } else {
                         return null;
-                    } else if (indentsLevel() == indent_level) {
-                        advance();
-                    } else if (indentsLevel() > indent_level) {
-                        throw error(peek(), "incorrect indentation");
                     }
-                } else {
-                    return null;
                 }
-            }
 
-            if (match(FOR)) return forStatement();
-            if (match(IF)) return ifStatement();
-            if (match(WHILE)) return whileStatement();
-            if (match(VAL)) return valDeclaration();
-            if (match(MUT)) return mutDeclaration();
-            if (match(LET)) return letDeclaration();
-            return branchThenStatements();
-            // Book: return expressionStatement();
-            // reset indentation level?
-        } catch (ParseError error) {
-            if (synchronize()) {
-                return null;
+                if (match(FOR)) return forStatement();
+                if (match(IF)) return ifStatement();
+                if (match(WHILE)) return whileStatement();
+                if (match(VAL)) return valDeclaration();
+                if (match(MUT)) return mutDeclaration();
+                if (match(LET)) return letDeclaration();
+                return branchThenStatements();
+                // Book: return expressionStatement();
+                // reset indentation level?
+            } catch (ParseError error) {
+                if (synchronize()) {
+                    return null;
+                }
             }
-
-            return statement();
         }
     }
 
@@ -374,9 +732,11 @@ class Parser {
     }
     // complete
     private Stmt forStatement() {
-        Token arrayName = consume(IDENTIFIER, "Expect array name after 'for'.");
+        consume(IDENTIFIER, "Expect array name after 'for'.");
+        Token arrayName = previous();
         consume(EACH, "Expect 'each' after array name");
-        Token itemName = consume(IDENTIFIER, "Expect item name after 'each'.");
+        consume(IDENTIFIER, "Expect item name after 'each'.");
+        Token itemName = previous();
 
         Token itemIndex = null;
         if (match(COMMA)) {
@@ -385,9 +745,11 @@ class Parser {
         }
 
         consume(NEWLINE, "Statement must occupy the rest of the line");
-        List<Stmt> body = block();
-
-        return new Stmt.For(arrayName, itemName, itemIndex, new Stmt.Block(body));
+        Opener opener = new Opener(FOR);
+        opener.array_name = arrayName;
+        opener.item_name = itemName;
+        opener.item_index = itemIndex;
+        return open(opener);
     }
     // complete
     private Stmt ifStatement() {
@@ -395,27 +757,9 @@ class Parser {
         Expr condition = expression();
         // todo: "then"
         consume(NEWLINE, "Condition must occupy the rest of the line.");
-        List<Stmt> thenBranch = block();
-
-        List<Stmt.ElseIf> else_if_branches = new ArrayList<>();
-        while (!isAtEnd()) {
-            if (match(ELIF)) {
-                Expr else_if_condition = expression();
-                consume(NEWLINE, "Condition must occupy the rest of the line.");
-                List<Stmt> else_if_body = block();
-                else_if_branches.add(new Stmt.ElseIf(else_if_condition, new Stmt.Block(else_if_body)));
-            } else {
-                break;
-            }
-        }
-
-        List<Stmt> elseBranch = null;
-        if (match(ELSE)) {
-            consume(NEWLINE, "\"else\" must occupy the rest of the line.");
-            elseBranch = block();
-        }
-
-        return new Stmt.If(condition, new Stmt.Block(thenBranch), new Stmt.ElseIfs(else_if_branches), new Stmt.Block(elseBranch));
+        Opener opener = new Opener(IF);
+        opener.condition = condition;
+        return open(opener);
     }
     // complete
     private Stmt printStatement() {
@@ -447,7 +791,8 @@ class Parser {
         List<Token> names = new ArrayList<>();
 
         do {
-            names.add(consume(IDENTIFIER, "Expect variable name."));
+            consume(IDENTIFIER, "Expect variable name.");
+            names.add(previous());
         } while (match(COMMA));
 
         List<Expr> initializer = new ArrayList<>();
@@ -481,7 +826,8 @@ class Parser {
         List<Token> names = new ArrayList<>();
 
         do {
-            names.add(consume(IDENTIFIER, "Expect variable name."));
+            consume(IDENTIFIER, "Expect variable name.");
+            names.add(previous());
         } while (match(COMMA));
 
         List<Expr> initializer = new ArrayList<>();
@@ -515,7 +861,8 @@ class Parser {
         List<Token> names = new ArrayList<>();
 
         do {
-            names.add(consume(IDENTIFIER, "Expect variable name."));
+            consume(IDENTIFIER, "Expect variable name.");
+            names.add(previous());
         } while (match(COMMA));
 
         List<Expr> initializer = new ArrayList<>();
@@ -548,9 +895,9 @@ class Parser {
     private Stmt whileStatement() {
         Expr condition = expression();
         consume(NEWLINE, "Only condition goes on this line");
-        List<Stmt> body = block();
-
-        return new Stmt.While(condition, new Stmt.Block(body));
+        Opener opener = new Opener(WHILE);
+        opener.condition = condition;
+        return open(opener);
     }
 
     private Stmt expressionStatement() {
@@ -562,14 +909,16 @@ class Parser {
     }
     // complete
     private Stmt.Function function(String kind) {
-        Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
+        consume(IDENTIFIER, "Expect " + kind + " name.");
+        Token name = previous();
         List<Token> params = new ArrayList<>();
 
         if (match(SEMICOLON)) {
             consume(NEWLINE, "Function header must occupy the rest of the line.");
         } else if (match(COLON)) {
             do {
-                Token param_name = consume(IDENTIFIER, "Expect parameter name.");
+                consume(IDENTIFIER, "Expect parameter name.");
+                Token param_name = previous();
                 params.add(param_name);
             } while (match(COMMA));
 
@@ -611,120 +960,285 @@ class Parser {
     }
     // complete
     private List<Stmt> block() {
-        indent_level++;
-        List<Stmt> statements = new ArrayList<>();
+        return ((Stmt.Block) blocks(new Opener(null))).statements;
+    }
 
-        while (!isAtEnd()) {
-            Stmt statement = statement();
+    // The for, if or while statement once it has its blocks. Inside blocks() the first one is only
+    // opened, and the statement finished when blocks() gets back to it.
+    private Stmt open(Opener opener) {
+        if (!opening) return blocks(opener);
+        return openBlock(opener);
+    }
 
-            if (statement != null) {
-                statements.add(statement);
-            } else {
+    // Parses the blocks of the opener and the blocks nested in them. The blocks still open are kept
+    // on open_blocks instead of the Java stack, so they nest as deep as max_depth lets them, however
+    // small the thread's stack. Returns the statement the opener makes.
+    private Stmt blocks(Opener opener) {
+        int base = open_blocks.size();
+        int depth_before = depth;
+        boolean opening_before = opening;
+        try {
+            Stmt done = openBlock(opener);
+            if (done != null) return done;
+
+            boolean ended = false;
+            while (true) {
+                OpenBlock top = open_blocks.getLast();
+                if (!ended && !isAtEnd()) {
+                    int open = open_blocks.size();
+                    opening = true;
+                    Stmt statement;
+                    try {
+                        statement = statement();
+                    } finally {
+                        opening = opening_before;
+                    }
+
+                    // a statement with a block of its own opened it
+                    if (open_blocks.size() > open) continue;
+                    if (statement != null) {
+                        top.statements.add(statement);
+                        continue;
+                    }
+                }
+
+                ended = false;
                 indent_level--;
-                return statements;
+                if (blocks != null && errors == top.errors_before) {
+                    TokenBuffer buffer = (TokenBuffer) tokens;
+                    blocks.add(new Block(top.statements, top.start - declaration_start, current - declaration_start, indent_level, depth, top.start, buffer.line(top.start)));
+                }
+                depth--;
+                open_blocks.removeLast();
+
+                // the statement the block was for goes on, as it would in the block it's in
+                try {
+                    done = closed(top.opener, top.statements);
+                    if (done == null) done = openBlock(top.opener);
+                } catch (ParseError error) {
+                    if (open_blocks.size() == base) throw error;
+                    ended = synchronize();
+                    continue;
+                }
+
+                if (done == null) continue;
+                if (open_blocks.size() == base) return done;
+                open_blocks.getLast().statements.add(done);
             }
+        } finally {
+            while (open_blocks.size() > base) open_blocks.removeLast();
+            depth = depth_before;
+            opening = opening_before;
         }
-
-        indent_level--;
-        return statements;
     }
-    // complete
-    private Expr assignment() {
-        Expr expr = or();
 
-        if (match(EQUAL)) {
-            Token equals = previous();
-            Expr value = assignment();
-
-            if (expr instanceof Expr.Variable) {
-                Token name = ((Expr.Variable)expr).name;
-                return new Expr.Assign(name, value);
-            } else if (expr instanceof Expr.Get) {
-                Expr.Get get = (Expr.Get)expr;
-                return new Expr.Set(get.object, get.name, value);
+    // Opens the next block of the opener, or takes it from the parse before; the statement once it
+    // has all of its blocks, null while one is open.
+    private Stmt openBlock(Opener opener) {
+        while (true) {
+            enter();
+            List<Stmt> kept = keptBlock();
+            if (kept == null) {
+                open_blocks.add(new OpenBlock(opener, current, errors));
+                indent_level++;
+                return null;
             }
 
-            error(equals, "Invalid assignment target.");
+            depth--;
+            Stmt done = closed(opener, kept);
+            if (done != null) return done;
         }
-
-        return expr;
     }
-    // complete
-    private Expr or() {
-        Expr expr = and();
 
-        while (match(OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
+    // The statement with the block it just got, or null once it has parsed the start of the next
+    // one, an "elif" or "else" of an if.
+    private Stmt closed(Opener opener, List<Stmt> body) {
+        if (opener.kind == null) return new Stmt.Block(body);
+        if (opener.kind == FOR) return new Stmt.For(opener.array_name, opener.item_name, opener.item_index, new Stmt.Block(body));
+        if (opener.kind == WHILE) return new Stmt.While(opener.condition, new Stmt.Block(body));
+
+        if (opener.else_branch) {
+            return new Stmt.If(opener.condition, new Stmt.Block(opener.then_branch), new Stmt.ElseIfs(opener.else_ifs), new Stmt.Block(body));
+        }
+        if (opener.then_branch == null) {
+            opener.then_branch = body;
+        } else {
+            opener.else_ifs.add(new Stmt.ElseIf(opener.else_if_condition, new Stmt.Block(body)));
+        }
+
+        if (!isAtEnd() && match(ELIF)) {
+            opener.else_if_condition = expression();
+            consume(NEWLINE, "Condition must occupy the rest of the line.");
+            return null;
+        }
+        if (match(ELSE)) {
+            consume(NEWLINE, "\"else\" must occupy the rest of the line.");
+            opener.else_branch = true;
+            return null;
         }
 
-        return expr;
+        return new Stmt.If(opener.condition, new Stmt.Block(opener.then_branch), new Stmt.ElseIfs(opener.else_ifs), new Stmt.Block(null));
     }
-    // complete
-    private Expr and() {
-        Expr expr = equality();
 
-        while (match(AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
+    // While reparsing, the statements of the block that starts here from the parse before, if it
+    // parsed without errors at the same level and depth and the edit touched none of the tokens it
+    // looked at; null if there is none. The parser goes on from where the block ends. Its
+    // statements are made again from their tokens if those moved, so the whole tree of the
+    // declaration being parsed says where its tokens are now, and the blocks in it can be kept by
+    // later reparses too.
+    private List<Stmt> keptBlock() {
+        if (change == null || blocks == null) return null;
+
+        int shift = change.added - change.removed;
+        boolean after = current - LOOK_BEHIND >= change.from + change.added;
+        if (!after && current >= change.from) return null;
+        int start = after ? current - shift : current;
+
+        // the declaration it was in: the last one starting at or before it
+        int low = 0;
+        int high = previous.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (previous.get(middle).start <= start) low = middle + 1;
+            else high = middle;
         }
+        if (low == 0) return null;
+        Declaration old = previous.get(low - 1);
+        if (old.blocks == null || start >= old.end) return null;
+
+        for (Block block : old.blocks) {
+            if (old.start + block.start != start || block.level != indent_level || block.depth != depth) continue;
+            int end = old.start + block.end;
+            if (!after && end + LOOK_AHEAD >= change.from) return null;
+
+            TokenBuffer buffer = (TokenBuffer) tokens;
+            int moved = after ? shift : 0;
+            int line = buffer.line(current);
+            List<Stmt> statements = block.statements;
+            int made_at = block.made_at;
+            if (current != block.made_at || line != block.made_line) {
+                statements = new ArrayList<>(block.statements.size());
+                for (Stmt statement : block.statements) statements.add(AstArena.moved(statement, current - block.made_at, line - block.made_line));
+                made_at = current;
+            }
 
-        return expr;
-    }
-    // complete
-    private Expr equality() {
-        Expr expr = comparison();
+            // the blocks in it come along, from the start of the declaration being parsed now
+            for (Block inner : old.blocks) {
+                int inner_start = old.start + inner.start;
+                if (inner != block && inner_start >= start && inner_start < end) {
+                    blocks.add(new Block(inner.statements, inner_start + moved - declaration_start, old.start + inner.end + moved - declaration_start,
+                            inner.level, inner.depth, inner.made_at, inner.made_line));
+                }
+            }
+            blocks.add(new Block(statements, current - declaration_start, end + moved - declaration_start, indent_level, depth, made_at, line));
 
-        while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(null, expr, operator, right);
+            current = end + moved;
+            return statements;
         }
 
-        return expr;
+        return null;
     }
+
     // complete
-    private Expr comparison() {
-        Expr expr = term();
+    private Expr assignment() {
+        return assignment(binary());
+    }
 
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(null, expr, operator, right);
-        }
+    // the rest of an assignment after its first operand
+    private Expr assignment(Expr expr) {
+        if (!check(EQUAL)) return expr;
+
+        // a = b = c is parsed as a run of targets and checked from the right, like a = (b = c),
+        // each value nested a level deeper
+        int base = operand_top;
+        int depth_before = depth;
+        try {
+            while (match(EQUAL)) {
+                enter();
+                push(expr, previous());
+                expr = binary();
+            }
+
+            while (operand_top > base) {
+                operand_top--;
+                Expr target = operands[operand_top];
+                Token equals = operators[operand_top];
 
-        return expr;
+                if (target instanceof Expr.Variable) {
+                    expr = new Expr.Assign(((Expr.Variable)target).name, expr);
+                } else if (target instanceof Expr.Get) {
+                    Expr.Get get = (Expr.Get)target;
+                    expr = new Expr.Set(get.object, get.name, expr);
+                } else {
+                    error(equals, "Invalid assignment target.");
+                    expr = target;
+                }
+            }
+
+            return expr;
+        } finally {
+            operand_top = base;
+            depth = depth_before;
+        }
     }
     // complete
-    private Expr term() {
-        Expr expr = factor();
+    // Operators from "or" down to "*" and "/", all left associative, by precedence climbing over
+    // the operand and operator stacks. Operands are casts, except right of "*" and "/", where they
+    // are unary expressions. A chain isn't held to max_depth, however long it is: it makes a tree
+    // as deep as it is long, and the arena and the printer walk trees on stacks of their own.
+    private Expr binary() {
+        return binary(cast());
+    }
+
+    // the rest of a binary expression after its first operand
+    private Expr binary(Expr expr) {
+        int base = operand_top;
+        try {
+            while (true) {
+                int precedence = PRECEDENCE[tokens.type(current).ordinal()];
+                if (precedence == 0) break;
+
+                while (operand_top > base && PRECEDENCE[operators[operand_top - 1].type.ordinal()] >= precedence) {
+                    operand_top--;
+                    expr = combine(operands[operand_top], operators[operand_top], expr);
+                }
+
+                advance();
+                push(expr, previous());
+                expr = precedence == FACTOR ? unary() : cast();
+            }
 
-        while (match(MINUS, PLUS)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(null, expr, operator, right);
+            while (operand_top > base) {
+                operand_top--;
+                expr = combine(operands[operand_top], operators[operand_top], expr);
+            }
+
+            return expr;
+        } finally {
+            operand_top = base;
         }
+    }
 
-        return expr;
+    private static Expr combine(Expr left, Token operator, Expr right) {
+        if (operator.type == OR || operator.type == AND) return new Expr.Logical(left, operator, right);
+        return new Expr.Binary(null, left, operator, right);
     }
-    // complete
-    private Expr factor() {
-        Expr expr = cast();
 
-        while (match(SLASH, STAR)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(null, expr, operator, right);
+    // an operand with the operator after it
+    private void push(Expr operand, Token operator) {
+        if (operand_top == operands.length) {
+            operands = Arrays.copyOf(operands, operand_top * 2);
+            operators = Arrays.copyOf(operators, operand_top * 2);
         }
 
-        return expr;
+        operands[operand_top] = operand;
+        operators[operand_top] = operator;
+        operand_top++;
     }
     // todo
     private Expr cast() {
         if (match(PIPE)) {
-            int left_pipe_column = previous().column;
+            int left_pipe_column = tokens.column(current - 1);
             Expr type = type();
 
             if (firstCharPos((Expr.Type)type) != left_pipe_column + 1) {
@@ -733,7 +1247,7 @@ class Parser {
 
             consume(PIPE, "Expect \"|\" after type.");
 
-            if (lastCharPos((Expr.Type)type) != previous().column - 1) {
+            if (lastCharPos((Expr.Type)type) != tokens.column(current - 1) - 1) {
                 throw error(previous(), "No spaces allowed between type and \"|\"");
             }
 
@@ -764,31 +1278,50 @@ class Parser {
     }
     // complete
     private Expr unary() {
-        if (match(BANG, MINUS)) {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(null, operator, right);
-        }
+        if (!check(BANG) && !check(MINUS)) return call();
 
-        return call();
+        // each operator nests what follows it a level deeper
+        int base = operand_top;
+        int depth_before = depth;
+        try {
+            while (check(BANG) || check(MINUS)) {
+                enter();
+                advance();
+                push(null, previous());
+            }
+
+            Expr expr = call();
+            while (operand_top > base) {
+                operand_top--;
+                expr = new Expr.Unary(null, operators[operand_top], expr);
+            }
+
+            return expr;
+        } finally {
+            operand_top = base;
+            depth = depth_before;
+        }
     }
     // complete
     private Expr call() {
         Boolean is_enclosed_call = false;
 
-        if (current > 0 && previous().type == LEFT_PAREN) {
+        if (current > 0 && tokens.type(current - 1) == LEFT_PAREN) {
             is_enclosed_call = true;
         }
 
-        Expr callee = instance();
+        return call(instance(), is_enclosed_call);
+    }
 
+    // calls and property gets on callee
+    private Expr call(Expr callee, Boolean is_enclosed_call) {
         while(true) {
-            if (check(SEMICOLON) && peek().column == previous().column + previous().length) {
+            if (check(SEMICOLON) && isAdjacent()) {
                 advance();
                 callee = new Expr.Call(callee, new Expr.Args(new ArrayList<>()));
             } else if (check(SEMICOLON)) {
                 throw error(peek(), "Expect semicolon immediately after function call name.");
-            } else if (check(COLON) && peek().column == previous().column + previous().length) {
+            } else if (check(COLON) && isAdjacent()) {
                 advance();
 
                 if (is_enclosed_call) {
@@ -826,7 +1359,8 @@ class Parser {
             } else if (check(COLON)) {
                 throw error(peek(), "Expect colon immediately after function call name.");
             } else if (match(DOT)) {
-                Token name = consume(IDENTIFIER, "Expect property name after \".\".");
+                consume(IDENTIFIER, "Expect property name after \".\".");
+                Token name = previous();
                 callee = new Expr.Get(callee, name);
             } else {
                 break;
@@ -836,99 +1370,131 @@ class Parser {
         return callee;
     }
     // complete
+    // An instance whose field's value starts with another instance, as generated code nests them,
+    // opens that one on a stack of its own instead of parsing the value with a call, so they nest
+    // as deep as max_depth lets them.
     private Expr instance() {
         // checkNext()?
-        if (check(IDENTIFIER) && peekNext().type == LEFT_BRACE) {
-            Token name = peek();
-            advance();
-            advance();
-            List<Expr.InstanceField> fields = new ArrayList<>();
-            Boolean atleastOneField = false;
+        if (!check(IDENTIFIER) || !checkNext(LEFT_BRACE)) return primary();
 
-            if (!match(NEWLINE)) {
-                Boolean line_close = true;
-                do {
-                    if (match(NEWLINE)) {
-                        line_close = false;
-                        break;
-                    }
+        List<OpenInstance> open = new ArrayList<>();
+        int depth_before = depth;
+        try {
+            open.add(openInstance());
+            while (true) {
+                Expr done = instanceFields(open.getLast());
+                if (done == null) {
+                    // the value's expression
+                    enter();
+                    open.add(openInstance());
+                    continue;
+                }
 
-                    Token field_name = consume(IDENTIFIER, "Expect field name.");
-                    consume(FIELD_EQUAL, "Expect field assignment operator \"->\".");
-                    Expr value = expression();
-                    fields.add(new Expr.InstanceField(field_name, value));
-                    atleastOneField = true;
-                } while (match(COMMA));
+                open.removeLast();
+                if (open.isEmpty()) return done;
 
-                if (line_close) {
-                    consume(RIGHT_BRACE, "Expect \"}\" after fields.");
-                    // "atleastOneField" is always true
-                    return new Expr.Instance(name, new Expr.InstanceFields(fields));
-                }
+                // the rest of the value after the instance it starts with
+                OpenInstance field_of = open.getLast();
+                field_of.add(assignment(binary(call(done, false))));
+                depth--;
             }
+        } finally {
+            depth = depth_before;
+        }
+    }
 
+    private OpenInstance openInstance() {
+        OpenInstance instance = new OpenInstance(peek());
+        advance();
+        advance();
+
+        if (match(NEWLINE)) {
             indent_level++;
-            while (!isAtEnd()) {
+            instance.indented = true;
+            instance.state = OpenInstance.LINE;
+        }
+
+        return instance;
+    }
+
+    // Parses the fields of the instance from where it stopped. Returns the instance once it is
+    // closed, or null at a value that starts with another instance.
+    private Expr instanceFields(OpenInstance instance) {
+        while (true) {
+            if (instance.state == OpenInstance.FIELD) {
+                consume(IDENTIFIER, "Expect field name.");
+                instance.field_name = previous();
+                consume(FIELD_EQUAL, "Expect field assignment operator \"->\".");
+                instance.state = OpenInstance.AFTER_VALUE;
+                if (check(IDENTIFIER) && checkNext(LEFT_BRACE)) return null;
+                instance.add(expression());
+            } else if (instance.state == OpenInstance.AFTER_VALUE) {
+                if (!instance.indented) {
+                    if (!match(COMMA)) {
+                        consume(RIGHT_BRACE, "Expect \"}\" after fields.");
+                        // "atleastOneField" is always true
+                        return instance.made();
+                    }
+                    if (match(NEWLINE)) {
+                        indent_level++;
+                        instance.indented = true;
+                        instance.state = OpenInstance.LINE;
+                    } else {
+                        instance.state = OpenInstance.FIELD;
+                    }
+                } else if (match(NEWLINE)) {
+                    instance.state = OpenInstance.LINE;
+                } else if (match(COMMA)) {
+                    instance.state = OpenInstance.FIELD;
+                } else {
+                    consume(RIGHT_BRACE, "Expect \"}\" after fields.");
+                    indent_level--;
+                    return instance.made();
+                }
+            } else {
+                if (isAtEnd()) return primary();
+
                 // INDENTS expected for check(INDENTS)
                 if (check(RIGHT_BRACE) && indent_level == 1) {
                     advance();
                     indent_level--;
 
-                    if (atleastOneField) {
-                        return new Expr.Instance(name, new Expr.InstanceFields(fields));
-                    } else {
-                        error(previous(), "Instance must have at least one field.");
-                    }
-                } else if (isIndents() && peekNext().type == RIGHT_BRACE) {
+                    if (instance.atleastOneField) return instance.made();
+                    error(previous(), "Instance must have at least one field.");
+                } else if (isIndents() && checkNext(RIGHT_BRACE)) {
                     indent_level--;
                     consumeIndents();
                     advance();
 
-                    if (atleastOneField) {
-                        return new Expr.Instance(name, new Expr.InstanceFields(fields));
-                    } else {
-                        error(previous(), "Instance must have at least one field.");
-                    }
+                    if (instance.atleastOneField) return instance.made();
+                    error(previous(), "Instance must have at least one field.");
                 } else {
                     consumeIndents();
-
-                    Boolean line_close = true;
-                    do {
-                        Token field_name = consume(IDENTIFIER, "Expect field name.");
-                        consume(FIELD_EQUAL, "Expect field assignment operator \"->\".");
-                        Expr value = expression();
-                        fields.add(new Expr.InstanceField(field_name, value));
-                        atleastOneField = true;
-
-                        if (match(NEWLINE)) {
-                            line_close = false;
-                            break;
-                        }
-                    } while (match(COMMA));
-
-                    if (line_close) {
-                        consume(RIGHT_BRACE, "Expect \"}\" after fields.");
-                        indent_level--;
-                        return new Expr.Instance(name, new Expr.InstanceFields(fields));
-                    }
+                    instance.state = OpenInstance.FIELD;
                 }
             }
         }
-
-        return primary();
     }
     // complete
     private Expr primary() {
 
-        if (match(FALSE, TRUE, NULL, NUMBER, STRING)) {
+        if (match(NUMBER)) {
+            // the scanner has the value already
+            int number = current - 1;
+            if (tokens.isFloat(number)) return new Expr.Literal(previous(), tokens.doubleValue(number));
+            return new Expr.Literal(previous(), tokens.longValue(number));
+        }
+
+        if (match(FALSE, TRUE, NULL, STRING)) {
             return new Expr.Literal(previous());
         }
 
         if (match(SUPER)) {
             Token keyword = previous();
             consume(DOT, "Expect '.' after 'super'.");
-            Token method = consume(IDENTIFIER,
+            consume(IDENTIFIER,
                     "Expect superclass method name.");
+            Token method = previous();
             return new Expr.Super(keyword, method);
         }
 
@@ -948,13 +1514,43 @@ class Parser {
         }
         */
 
-        if (match(LEFT_PAREN)) {
+        if (match(LEFT_PAREN)) return grouping();
+
+        throw error(peek(), "Expect expression.");
+    }
+
+    // A run of opening parentheses is parsed with a counter instead of a call per parenthesis.
+    // After each closing one, the grouping is the first operand of the expression around it,
+    // which continues from there.
+    // Each parenthesis is a level of nesting, as it would be with a call per parenthesis.
+    private Expr grouping() {
+        int depth_before = depth;
+        try {
+            int open = 1;
+            while (match(LEFT_PAREN)) {
+                enter();
+                open++;
+            }
+
             Expr expr = expression();
-            consume(RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(null, expr);
+            while (true) {
+                consume(RIGHT_PAREN, "Expect ')' after expression.");
+                expr = new Expr.Grouping(null, expr);
+                if (--open == 0) return expr;
+
+                // the expression in the parenthesis still open goes on at its depth
+                depth = depth_before + open;
+                expr = assignment(binary(call(expr, true)));
+            }
+        } finally {
+            depth = depth_before;
         }
+    }
 
-        throw error(peek(), "Expect expression.");
+    private boolean match(TokenType type) {
+        if (!check(type)) return false;
+        advance();
+        return true;
     }
 
     private boolean match(TokenType... types) {
@@ -968,8 +1564,11 @@ class Parser {
         return false;
     }
 
-    private Token consume(TokenType type, String message) {
-        if (check(type)) return advance();
+    private void consume(TokenType type, String message) {
+        if (check(type)) {
+            advance();
+            return;
+        }
 
         throw error(peek(), message);
 
@@ -979,104 +1578,90 @@ class Parser {
         return check(TABS_INDENT) || check(SPACES_INDENT);
     }
 
-    private void isIndentType() {
-        if (tabs_or_spaces && !check(TABS_INDENT)) {
-            throw error(peek(), "Expect indentation using tabs.");
-        } else if (!tabs_or_spaces && !check(SPACES_INDENT)) {
-            throw error(peek(), "Expect indentation using spaces.");
-        }
-    }
-
-    private Token consumeIndents() {
-        isIndentType();
+    private void consumeIndents() {
         // purposely no check if indentation level is zero
-        if (isIndents() && indentsLevel() == indent_level) return advance();
-        if (tabs_or_spaces) {
+        if (isIndents() && indentsLevel() == indent_level) {
+            advance();
+            return;
+        }
+        if (tokens.indentTabs()) {
             throw error(peek(), "Expect " + indent_level + " tabs of indentation.");
         }
-        throw error(peek(), "Expect " + (indent_level * spaces) + " spaces of indentation.");
+        throw error(peek(), "Expect " + (indent_level * tokens.indentWidth()) + " spaces of indentation.");
     }
 
-    private float indentsLevel() {
-        if (tabs_or_spaces) {
-            return peek().length;
-        } else {
-            return (float) peek().length / (float) spaces;
-        }
+    // the scanner works out the level of every indented line
+    private int indentsLevel() {
+        return tokens.depth(current);
+    }
+
+    // true if the current token starts right where the previous one ends
+    private boolean isAdjacent() {
+        return tokens.column(current) == tokens.column(current - 1) + tokens.length(current - 1);
     }
 
     private boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return peek().type == type;
+        return tokens.type(current) == type;
     }
 
     private boolean checkNext(TokenType type) {
         if (isAtEnd()) return false;
-        return peekNext().type == type;
+        return tokens.type(current + 1) == type;
     }
 
     private boolean checkNextNext(TokenType type) {
         if (isAtEnd()) return false;
-        return peekNextNext().type == type;
+        return tokens.type(current + 2) == type;
     }
 
     private boolean checkNextNextNext(TokenType type) {
         if (isAtEnd()) return false;
-        return peekNextNextNext().type == type;
+        return tokens.type(current + 3) == type;
     }
 
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd()) current++;
-        return previous();
     }
 
     private boolean isAtEnd() {
-        return peek().type == EOF;
+        return tokens.type(current) == EOF;
     }
 
+    // the methods below make a Token, only the AST and diagnostics need one
     private Token peek() {
-        return tokens.get(current);
-    }
-
-    private Token peekNext() {
-        return tokens.get(current + 1);
-    }
-
-    private Token peekNextNext() {
-        return tokens.get(current + 2);
-    }
-
-    private Token peekNextNextNext() {
-        return tokens.get(current + 3);
+        return tokens.token(current);
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 
     private Token previousPrevious() {
-        return tokens.get(current - 2);
+        return tokens.token(current - 2);
     }
 
     private ParseError error(Token token, String message) {
-        Kona.error(token, message);
-        return new ParseError();
+        errors++;
+        diagnostics.add(token, message);
+        return PARSE_ERROR;
     }
     // true means exit scope, false means do nothing
     private Boolean synchronize() {
         advance();
 
         while (!isAtEnd()) {
+            // nothing happens at tokens other than new lines and indentation, so go to the next one
+            current = tokens.nextLineMark(current);
+            if (isAtEnd()) break;
+
             if (indent_level > 0) {
                 if (match(NEWLINE) && !isIndents()) {
                     return true;
                 } else if (isIndents()) {
-                    isIndentType();
                     if (indentsLevel() < indent_level) return true;
                     if (indentsLevel() == indent_level) {
-                        Token t = peekNext();
-
-                        switch (t.type) {
+                        switch (tokens.type(current + 1)) {
                             // case can be any statement, parser check correctness later
                             case CLASS:
                             case FUN:
@@ -1093,20 +1678,14 @@ class Parser {
                         }
                     }
                     if (indentsLevel() > indent_level) {
-                        while (!isAtEnd()) {
-                            if (check(NEWLINE)) {
-                                break;
-                            } else {
-                                advance();
-                            }
+                        while (!isAtEnd() && !check(NEWLINE)) {
+                            current = tokens.nextLineMark(current + 1);
                         }
                     }
                 }
             } else if (indent_level == 0) {
                 if (match(NEWLINE)) {
-                    Token t = peek();
-
-                    switch (t.type) {
+                    switch (tokens.type(current)) {
                         // case can be any statement, parser check correctness later
                         case CLASS:
                         case FUN:
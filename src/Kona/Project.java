@@ -0,0 +1,211 @@
+package Kona;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+// Compiles many files in one process: the .kona files under directories, the files matching globs
+// and the files given. Each file is read by a SourceLoader, then scanned and parsed by a task of
+// its own on a work-stealing pool, in a session that keeps the output in memory; big files are
+// split further on the same pool. The output comes out in the order the files were given, a
+// directory's files in path order, the same as compiling them one after the other. Files are
+// started in that order, and only while the files started but not printed yet are under BUDGET
+// bytes of source, so a slow file holds up the ones after it instead of letting their output pile
+// up.
+class Project {
+    static final String EXTENSION = ".kona";
+    // bytes of source being read, compiled or waiting to be printed at most
+    private static final int BUDGET = 64 << 20;
+    // exit statuses as the daemon's: errors in the source, a file that failed to compile at all
+    // and one that couldn't be read
+    static final int DATA_ERROR = 65;
+    static final int SOFTWARE_ERROR = 70;
+    static final int IO_ERROR = 74;
+
+    private static class Compiled {
+        final byte[] out;
+        final byte[] err;
+        // 0, or one of the exit statuses above
+        final int status;
+
+        Compiled(byte[] out, byte[] err, int status) {
+            this.out = out;
+            this.err = err;
+            this.status = status;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    // only reports errors, no tokens or trees are printed
+    private final boolean check;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final Charset charset;
+    // the files of a project agree on the ids of their names
+    private final Symbols symbols = new Symbols();
+
+    Project(ForkJoinPool pool, boolean check, PrintStream out, PrintStream err, Charset charset) {
+        this.pool = pool;
+        this.check = check;
+        this.out = out;
+        this.err = err;
+        this.charset = charset;
+    }
+
+    static boolean isGlob(String path) {
+        return firstWildcard(path) >= 0;
+    }
+
+    private static int firstWildcard(String path) {
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') return i;
+        }
+        return -1;
+    }
+
+    // the files the paths name, in order and each once
+    static List<Path> sources(List<String> paths) throws IOException {
+        Set<Path> files = new LinkedHashSet<>();
+        for (String path : paths) {
+            int wildcard = firstWildcard(path);
+            if (wildcard >= 0) {
+                // walked from the last directory before the wildcard
+                int separator = Math.max(path.lastIndexOf('/', wildcard), path.lastIndexOf(File.separatorChar, wildcard));
+                Path base = Path.of(path.substring(0, separator + 1));
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + path);
+                files.addAll(walk(base, matcher::matches));
+            } else if (Files.isDirectory(Path.of(path))) {
+                files.addAll(walk(Path.of(path), file -> file.toString().endsWith(EXTENSION)));
+            } else {
+                files.add(Path.of(path));
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    private static List<Path> walk(Path base, Predicate<Path> wanted) throws IOException {
+        try (Stream<Path> files = Files.walk(base)) {
+            return files.filter(file -> wanted.test(file) && Files.isRegularFile(file)).sorted().toList();
+        }
+    }
+
+    // Compiles the files and prints what they print in order. Returns the highest exit status of
+    // any file, 0 if all of them compiled without errors. A file that fails to compile is reported
+    // as that file's error, the others are compiled all the same.
+    int compile(List<Path> files) {
+        SourceLoader loader = new SourceLoader(charset);
+        List<CompletableFuture<Compiled>> results = new ArrayList<>(files.size());
+        List<CompletableFuture<Long>> sizes = new ArrayList<>(files.size());
+        for (Path file : files) {
+            results.add(new CompletableFuture<>());
+            sizes.add(loader.size(file));
+        }
+
+        Semaphore budget = new Semaphore(BUDGET);
+        Thread starter = new Thread(() -> {
+            for (int i = 0; i < files.size(); i++) {
+                budget.acquireUninterruptibly(cost(sizes.get(i)));
+                CompletableFuture<Compiled> result = results.get(i);
+                // read on a virtual thread, then scanned and parsed on the pool
+                loader.load(files.get(i), source -> {
+                    try {
+                        pool.execute(() -> {
+                            try {
+                                result.complete(compile(source));
+                            } catch (Throwable error) {
+                                result.completeExceptionally(error);
+                            } finally {
+                                loader.release(source);
+                            }
+                        });
+                    } catch (Throwable error) {
+                        loader.release(source);
+                        result.completeExceptionally(error);
+                    }
+                });
+            }
+        }, "kona-project");
+        starter.setDaemon(true);
+        starter.start();
+
+        int status = 0;
+        for (int i = 0; i < files.size(); i++) {
+            Compiled compiled;
+            try {
+                compiled = results.get(i).join();
+            } catch (CompletionException failed) {
+                compiled = failed(files.get(i), failed.getCause());
+            }
+            if (!check) out.println(files.get(i) + ":");
+            out.write(compiled.out, 0, compiled.out.length);
+            out.flush();
+            err.write(compiled.err, 0, compiled.err.length);
+            err.flush();
+            status = Math.max(status, compiled.status);
+            budget.release(cost(sizes.get(i)));
+        }
+        loader.close();
+        return status;
+    }
+
+    // a file that couldn't be read or whose compile threw, with nothing it printed left
+    private Compiled failed(Path file, Throwable error) {
+        String message = file + (error instanceof IOException ? ": can't read: " : ": can't compile: ") + error + System.lineSeparator();
+        return new Compiled(new byte[0], message.getBytes(err.charset()), error instanceof IOException ? IO_ERROR : SOFTWARE_ERROR);
+    }
+
+    // a file bigger than the budget takes all of it
+    private static int cost(CompletableFuture<Long> size) {
+        return (int) Math.min(size.join(), BUDGET);
+    }
+
+    private Compiled compile(SourceLoader.Source source) {
+        Path file = source.file;
+        ByteArrayOutputStream file_out = new ByteArrayOutputStream();
+        ByteArrayOutputStream file_err = new ByteArrayOutputStream();
+        PrintStream session_out = check ? null : new PrintStream(file_out, false, out.charset());
+        PrintStream session_err = new PrintStream(file_err, false, err.charset());
+        CompilationSession session = new CompilationSession(session_out, session_err, pool, Diagnostics.LIMIT, Parser.MAX_DEPTH, ParseCache.CONFIGURED, symbols);
+        session.diagnostics.file = file.toString();
+
+        int status;
+        try {
+            if (source.error instanceof IOException error) throw error;
+            if (source.error != null) return failed(file, source.error);
+            if (source.bytes != null) {
+                session.compile(source.bytes);
+            } else {
+                session.compile(file, charset);
+            }
+            status = session.hadError() ? DATA_ERROR : 0;
+        } catch (IOException error) {
+            session_err.println(file + ": can't read: " + error);
+            status = IO_ERROR;
+        } catch (RuntimeException error) {
+            // what the file printed before stays
+            session_err.println(file + ": can't compile: " + error);
+            status = SOFTWARE_ERROR;
+        }
+
+        if (session_out != null) session_out.flush();
+        session_err.flush();
+        return new Compiled(file_out.toByteArray(), file_err.toByteArray(), status);
+    }
+}
@@ -2,106 +2,425 @@
 
 package Kona;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
+import static Kona.TextSearch.SEARCH;
 import static Kona.TokenType.*;
 
-class Scanner {
-
-    private static final Map<String, TokenType> keywords;
-
-    static {
-        keywords = new HashMap<>();
-        keywords.put("template", TEMPLATE);
-        keywords.put("def",    DEF);
-        keywords.put("class",  CLASS);
-        keywords.put("ext",    EXT);
-        keywords.put("of",     OF);
-        keywords.put("req",    REQ);
-        keywords.put("override", OVERRIDE);
-        keywords.put("priv",   PRIV);
-        keywords.put("mut",    MUT);
-        keywords.put("if",     IF);
-        keywords.put("elif",   ELIF);
-        keywords.put("else",   ELSE);
-        keywords.put("true",   TRUE);
-        keywords.put("false",  FALSE);
-        keywords.put("fun",    FUN);
-        keywords.put("null",   NULL);
-        keywords.put("echo",   ECHO);
-        keywords.put("return", RETURN);
-        keywords.put("super",  SUPER);
-        keywords.put("self",   SELF);
-        keywords.put("final",  FINAL);
-        keywords.put("val",    VAL);
-        keywords.put("let",    LET);
-        keywords.put("while",  WHILE);
-        keywords.put("for",    FOR);
-        keywords.put("each",   EACH);
-        keywords.put("block",  BLOCKSTMT);
-    }
-
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
-    private int start = 0;
-    private int current = 0;
-    private int column = 1;
-    private int line = 1;
+class Scanner implements SourceText {
+
+    // chars pulled from the reader per refill when streaming
+    private static final int CHUNK_SIZE = 1 << 16;
+    // smallest part of a file worth scanning on its own thread
+    private static final int MIN_PART = 1 << 16;
+    // tokens held at once when they are pulled by the parser
+    private static final int STREAM_TOKENS = 64;
+    // chars read at a time when scanning again after an edit, which mostly rescans a line
+    private static final int RESCAN_CHUNK = 1 << 10;
+    private static final int SYMBOL_CACHE = 256;
+    // powers of ten a double holds exactly
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // null when the whole source is already in the buffer
+    private final Reader reader;
+    // window of the source; buffer[0] is the first char not yet discarded
+    private char[] buffer;
+    // end of what can be read, for a scanner of a part of the file the end of the part
+    int limit;
+    // chars dropped from the front of the buffer so far, offsets in tokens count them
+    private int discarded = 0;
+    private TokenBuffer tokens;
+    // the session's diagnostics, where errors in the source are reported
+    final Diagnostics diagnostics;
+    // the session's names of identifiers
+    final Symbols symbols;
+    // start and current are positions in whatever the subclass reads, lengths come from the columns
+    int start = 0;
+    int current = 0;
+    int column = 1;
+    int start_column = 1;
+    int line = 1;
+    // how the file indents, set by its first indented line
+    private boolean indent_tabs = true;
+    private int indent_width = 0;
+    // diagnostics of a scanner working on a part of a file wait here to be reported in file order
+    private List<Runnable> held_errors = null;
+    // names this scanner has seen and their ids, looked up by the chars in the source so only a
+    // new name makes a string or goes to the session's table
+    private String[] cached_names = new String[SYMBOL_CACHE];
+    private int[] cached_ids = new int[SYMBOL_CACHE];
+    private int cached = 0;
 
     Scanner(String source) {
-        this.source = source;
+        this(source, new CompilationSession());
     }
 
-    List<Token> scanTokens() {
+    Scanner(String source, CompilationSession session) {
+        this(source.toCharArray(), 0, source.length(), session.diagnostics, session.symbols);
+    }
+
+    // scans the chars from "from" up to "to" of a source that is all in memory
+    Scanner(char[] buffer, int from, int to, Diagnostics diagnostics, Symbols symbols) {
+        this.reader = null;
+        this.diagnostics = diagnostics;
+        this.symbols = symbols;
+        this.buffer = buffer;
+        this.start = from;
+        this.current = from;
+        this.limit = to;
+        this.tokens = new TokenBuffer(this, expectedTokens(to - from), symbols);
+    }
+
+    // streams the source in chunks, only the current lexeme is kept in memory
+    Scanner(Reader reader) {
+        this(reader, CHUNK_SIZE);
+    }
+
+    Scanner(Reader reader, int chunk_size) {
+        this(reader, chunk_size, new CompilationSession());
+    }
+
+    Scanner(Reader reader, int chunk_size, CompilationSession session) {
+        this(reader, chunk_size, session.diagnostics, session.symbols);
+    }
+
+    private Scanner(Reader reader, int chunk_size, Diagnostics diagnostics, Symbols symbols) {
+        this.reader = reader;
+        this.diagnostics = diagnostics;
+        this.symbols = symbols;
+        this.buffer = new char[chunk_size];
+        this.limit = 0;
+        // the buffer moves on, so the lexemes are kept in the tokens
+        this.tokens = new TokenBuffer(null, symbols);
+    }
+
+    Scanner(ReadableByteChannel channel, Charset charset) {
+        this(channel, charset, new CompilationSession());
+    }
+
+    Scanner(ReadableByteChannel channel, Charset charset, CompilationSession session) {
+        this(Channels.newReader(channel, charset), CHUNK_SIZE, session);
+    }
+
+    // Kona averages about 4 chars per token, sizing the buffer with room to spare saves growing it
+    private static int expectedTokens(int size) {
+        return size / 3 + 16;
+    }
+
+    TokenBuffer scanTokens() {
+        scanPart();
+        tokens.add(EOF, discarded + current, 0, line, 0, null, 0);
+        return tokens;
+    }
+
+    // Scans a source that is all in memory in parts on the pool, giving the same tokens and
+    // diagnostics as scanTokens. The file is cut at lines that start at the top level, outside of
+    // any comment or string, where only the line number and the indentation unit carry over.
+    TokenBuffer scanTokens(ForkJoinPool pool) {
+        if (reader != null || pool.getParallelism() < 2 || limit - current < 2 * MIN_PART) {
+            return scanTokens();
+        }
+
+        // finding the cuts walks the comments and strings of the whole file once
+        Scanner finder = part(current, limit);
+        finder.held_errors = new ArrayList<>();
+        List<int[]> cuts = finder.cuts(Math.max(MIN_PART, (limit - current) / (pool.getParallelism() * 4)));
+        if (cuts.isEmpty()) return scanTokens();
+
+        List<Scanner> parts = new ArrayList<>();
+        int from = current;
+        int from_line = line;
+        for (int[] cut : cuts) {
+            parts.add(finder.partFrom(from, cut[0], from_line));
+            from = cut[0];
+            from_line = cut[1];
+        }
+        parts.add(finder.partFrom(from, limit, from_line));
+
+        List<ForkJoinTask<TokenBuffer>> scans = new ArrayList<>();
+        for (Scanner part : parts) {
+            scans.add(pool.submit(part::scanPart));
+        }
+
+        for (int i = 0; i < parts.size(); i++) {
+            tokens.append(scans.get(i).join());
+            parts.get(i).held_errors.forEach(Runnable::run);
+        }
+
+        if (finder.indent_width != 0) tokens.setIndentation(finder.indent_tabs, finder.indent_width);
+        current = limit;
+        line = parts.getLast().line;
+        tokens.add(EOF, current, 0, line, 0, null, 0);
+        return tokens;
+    }
+
+    // Tokens scanned as they are pulled instead of all at once, only a window of them is held. Use
+    // either this or scanTokens.
+    TokenStream stream() {
+        tokens = new TokenBuffer(tokens.source(), STREAM_TOKENS, symbols);
+        indentation();
+        return new TokenStream(this, tokens);
+    }
+
+    // Scans until at least one more token is in the buffer, adding EOF at the end. False once EOF
+    // is already there.
+    boolean scanNext() {
+        if (tokens.lastType() == EOF) return false;
+
+        int size = tokens.size();
+        while (tokens.size() == size) {
+            if (isAtEnd()) {
+                tokens.add(EOF, discarded + current, 0, line, 0, null, 0);
+                break;
+            }
+
+            start = current;
+            start_column = column;
+            scanToken();
+        }
+
+        return true;
+    }
+
+    // Scans a source again after an edit, from the start of the line the edit begins on up to the
+    // first new line after it where the old tokens had the same new line in the same state. From
+    // there on the old tokens only need to move. tokens are the ones of the text before the edit
+    // and are changed into the ones of source, the text after it.
+    static TokenBuffer.Change rescan(TokenBuffer tokens, String source, Edit edit) {
+        return rescan(tokens, source, edit, new CompilationSession());
+    }
+
+    static TokenBuffer.Change rescan(TokenBuffer tokens, String source, Edit edit, CompilationSession session) {
+        int delta = edit.inserted.length() - edit.removed;
+        int edit_end = edit.offset + edit.inserted.length();
+        int from = tokens.lineStartBefore(edit.offset);
+        int restart = from == 0 ? 0 : tokens.offset(from - 1) + 1;
+        // the unit is known where the scan restarts if the first indented line is before it
+        int first_indent = tokens.firstIndentOffset();
+
+        // the edited text is read from where the scan restarts only as far as the scan goes, and
+        // the tokens cut the lexemes they don't keep out of the text itself
+        Reader reader = new StringReader(source);
+        try {
+            reader.skip(restart);
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+        // the ids have to be the ones the tokens already have
+        Scanner scanner = new Scanner(reader, RESCAN_CHUNK, session.diagnostics, tokens.symbols());
+        scanner.discarded = restart;
+        scanner.tokens = new TokenBuffer((offset, size) -> source.substring(offset, offset + size), STREAM_TOKENS, tokens.symbols());
+        if (from > 0) scanner.line = tokens.line(from - 1) + 1;
+        if (first_indent >= 0 && first_indent < restart) {
+            scanner.indent_tabs = tokens.indentTabs();
+            scanner.indent_width = tokens.indentWidth();
+        }
+
+        scanner.indentation();
+        int old = from;
+        int resync = -1;
+        while (resync < 0 && !scanner.isAtEnd()) {
+            int size = scanner.tokens.size();
+            scanner.start = scanner.current;
+            scanner.start_column = scanner.column;
+            scanner.scanToken();
+
+            for (int i = size; i < scanner.tokens.size(); i++) {
+                if (scanner.tokens.type(i) != NEWLINE || scanner.tokens.offset(i) < edit_end) continue;
+
+                int old_offset = scanner.tokens.offset(i) - delta;
+                while (old < tokens.size() - 1 && tokens.offset(old) < old_offset) old++;
+                if (tokens.type(old) != NEWLINE || tokens.offset(old) != old_offset) continue;
+
+                boolean old_known = first_indent >= 0 && first_indent <= old_offset;
+                boolean same_unit = old_known
+                        ? scanner.indent_width == tokens.indentWidth() && scanner.indent_tabs == tokens.indentTabs()
+                        : scanner.indent_width == 0;
+                if (same_unit) {
+                    resync = i;
+                    break;
+                }
+            }
+        }
+
+        int added;
+        int removed;
+        int line_delta = 0;
+        if (resync >= 0) {
+            added = resync + 1;
+            removed = old + 1 - from;
+            line_delta = scanner.tokens.line(resync) - tokens.line(old);
+        } else {
+            scanner.tokens.add(EOF, scanner.discarded + scanner.current, 0, scanner.line, 0, null, 0);
+            added = scanner.tokens.size();
+            removed = tokens.size() - from;
+        }
+
+        // with no old tokens left past the scan, the unit is whatever the scan found, if anything
+        boolean keep_unit = resync >= 0 && first_indent >= 0;
+        tokens.replace(from, from + removed, scanner.tokens, added, delta, line_delta);
+        if (scanner.indent_width != 0) {
+            tokens.setIndentation(scanner.indent_tabs, scanner.indent_width);
+        } else if (!keep_unit) {
+            tokens.setIndentation(true, 1);
+        }
+
+        return new TokenBuffer.Change(from, removed, added, delta, line_delta);
+    }
+
+    // a scanner of the part from "from" up to "to" of the same source
+    Scanner part(int from, int to) {
+        return new Scanner(buffer, from, to, diagnostics, symbols);
+    }
+
+    // a part starting on the given line, knowing the indentation unit the file uses
+    private Scanner partFrom(int from, int to, int line) {
+        Scanner part = part(from, to);
+        part.line = line;
+        part.indent_tabs = indent_tabs;
+        part.indent_width = indent_width;
+        part.held_errors = new ArrayList<>();
+        return part;
+    }
+
+    private TokenBuffer scanPart() {
+        indentation();
+
+        while (!isAtEnd()) {
+            // We are at the beginning of the next lexeme.
+            start = current;
+            start_column = column;
+            scanToken();
+        }
+
+        return tokens;
+    }
+
+    // Line starts, each at least part_size chars after the one before, where scanning can begin as
+    // if the file started there, paired with their line. Skips over comments and strings the
+    // way scanToken does and takes the indentation unit from the first indented line.
+    private List<int[]> cuts(int part_size) {
+        List<int[]> cuts = new ArrayList<>();
+        int last = current;
+        indentation();
+
+        while (!isAtEnd()) {
+            skip(plainRun('#', '"'));
+            switch (advance()) {
+                case '#':
+                    if (match('[')) {
+                        blockComment();
+                    } else {
+                        lineComment();
+                    }
+                    break;
+                case '"':
+                    stringBody();
+                    advance();
+                    break;
+                case '\n':
+                    line++;
+                    column = 1;
+                    if (peek() == '\t' || peek() == ' ') {
+                        if (indent_width == 0) indentation();
+                    } else if (current - last >= part_size && !isAtEnd()) {
+                        cuts.add(new int[] {current, line});
+                        last = current;
+                    }
+                    break;
+            }
+        }
+
+        return cuts;
+    }
+
+    // Scans the indentation at the start of a line and adds one indent token for it, holding how many
+    // levels deep the line is so the parser can compare levels directly. The first indented line
+    // decides whether the file uses tabs or spaces, and for spaces how many make a level. Blank
+    // lines get no token.
+    private void indentation() {
         boolean has_tabs = false;
         boolean has_spaces = false;
-        List<Token> indent_tokens = new ArrayList<>();
+        TokenType indent_type = null;
+        int indent_offset = 0;
+        int indent_length = 0;
+        int indent_column = 0;
         while (!isAtEnd()) {
             if (peek() == '\t') {
                 has_tabs = true;
                 start = current;
+                start_column = column;
+                skip(sameRun('\t'));
                 while (match('\t')) {
 
                 }
 
-                indent_tokens.add(new Token(TABS_INDENT, source.substring(start, current), line, column - (current - start), current - start));
+                // only the first run of the line becomes a token
+                if (indent_type == null) {
+                    indent_type = TABS_INDENT;
+                    indent_offset = discarded + start;
+                    indent_length = column - start_column;
+                    indent_column = start_column;
+                }
             } else if (peek() == ' ') {
                 has_spaces = true;
                 start = current;
+                start_column = column;
+                skip(sameRun(' '));
                 while (match(' ')) {
 
                 }
 
-                indent_tokens.add(new Token(SPACES_INDENT, source.substring(start, current), line, column - (current - start), current - start));
+                if (indent_type == null) {
+                    indent_type = SPACES_INDENT;
+                    indent_offset = discarded + start;
+                    indent_length = column - start_column;
+                    indent_column = start_column;
+                }
             } else {
                 break;
             }
         }
 
-        if (!isAtEnd()) {
-            if (has_tabs && has_spaces) {
-                Kona.error(line, column, current - start, "Indentation must not have both tabs and spaces.");
-                if (peek() != '\n') {
-                    tokens.add(indent_tokens.get(0));
-                }
-            } else if (has_tabs || has_spaces){
-                if (peek() != '\n') {
-                    tokens.add(indent_tokens.get(0));
-                }
-            }
+        if (isAtEnd() || indent_type == null) return;
+
+        if (has_tabs && has_spaces) {
+            error(line, column, column - start_column, "Indentation must not have both tabs and spaces.");
         }
 
-        while (!isAtEnd()) {
-            // We are at the beginning of the next lexeme.
-            start = current;
-            scanToken();
+        if (peek() == '\n') return;
+
+        if (indent_width == 0) {
+            indent_tabs = indent_type == TABS_INDENT;
+            indent_width = indent_tabs ? 1 : indent_length;
+            tokens.setIndentation(indent_tabs, indent_width);
         }
 
-        tokens.add(new Token(EOF, "", line, 0, 0));
-        return tokens;
+        // uneven indentation is reported here and goes to the nearest level, so the parser sees the
+        // line where it most likely belongs instead of reporting its block as well
+        int depth = (indent_length + indent_width / 2) / indent_width;
+        if ((indent_type == TABS_INDENT) != indent_tabs) {
+            error(line, indent_column, indent_length, indent_tabs ? "Expect indentation using tabs." : "Expect indentation using spaces.");
+            depth = -1;
+        } else if (indent_length % indent_width != 0) {
+            error(line, indent_column, indent_length, "Expect indentation in multiples of " + indent_width + " spaces.");
+        }
+
+        tokens.add(indent_type, indent_offset, indent_length, line, indent_column, null, depth);
     }
 
     private void scanToken() {
@@ -141,19 +460,9 @@ class Scanner {
                 break;
             case '#':
                 if (match('[')) {
-                    while (peek() != ']' && peekNext() != '#' && !isAtEnd()) {
-                        if (source.charAt(current) == '\n') {
-                            line++;
-                            column = 1;
-                        }
-                        advance();
-                    }
-
-                    advance();
-                    advance();
+                    blockComment();
                 } else {
-                    // A comment goes until the end of the line.
-                    while (peek() != '\n' && !isAtEnd()) advance();
+                    lineComment();
                 }
                 break;
 
@@ -164,53 +473,14 @@ class Scanner {
             case '\n':
                 // could be optimized?
                 // skip new line if previous token is new line
-                if (!tokens.isEmpty() && tokens.getLast().type != NEWLINE) {
+                if (tokens.size() > 0 && tokens.lastType() != NEWLINE) {
                     addToken(NEWLINE);
                 }
 
                 line++;
                 column = 1;
                 // resume
-
-                boolean has_tabs = false;
-                boolean has_spaces = false;
-                List<Token> indent_tokens = new ArrayList<>();
-
-                while (!isAtEnd()) {
-                    if (peek() == '\t') {
-                        has_tabs = true;
-                        start = current;
-                        while (match('\t')) {
-
-                        }
-
-                        indent_tokens.add(new Token(TABS_INDENT, source.substring(start, current), line, column - (current - start), current - start));
-                    } else if (peek() == ' ') {
-                        has_spaces = true;
-                        start = current;
-                        while (match(' ')) {
-
-                        }
-
-                        indent_tokens.add(new Token(SPACES_INDENT, source.substring(start, current), line, column - (current - start), current - start));
-                    } else {
-                        break;
-                    }
-                }
-
-                if (!isAtEnd()) {
-                    if (has_tabs && has_spaces) {
-                        Kona.error(line, column, current - start, "Indentation must not have both tabs and spaces.");
-                        if (peek() != '\n') {
-                            tokens.add(indent_tokens.getFirst());
-                        }
-                    } else if (has_tabs || has_spaces){
-                        if (peek() != '\n') {
-                            tokens.add(indent_tokens.getFirst());
-                        }
-                    }
-                }
-
+                indentation();
                 break;
             case '"': string(); break;
 
@@ -220,7 +490,7 @@ class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Kona.error(line, column, current - start, "Unexpected character.");
+                    error(line, column, column - start_column, "Unexpected character.");
                 }
                 break;
         }
@@ -229,34 +499,181 @@ class Scanner {
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null) type = IDENTIFIER;
-        addToken(type);
+        addToken(identifierType());
     }
 
+    // Keywords are told apart by their first chars and checked against the source in place,
+    // so no identifier needs a string to be looked up.
+    private TokenType identifierType() {
+        int length = current - start;
+
+        switch (charAt(start)) {
+            case 'b': return checkKeyword(1, BLOCKSTMT);
+            case 'c': return checkKeyword(1, CLASS);
+            case 'd': return checkKeyword(1, DEF);
+            case 'e':
+                if (length > 1) {
+                    switch (charAt(start + 1)) {
+                        case 'a': return checkKeyword(2, EACH);
+                        case 'c': return checkKeyword(2, ECHO);
+                        case 'x': return checkKeyword(2, EXT);
+                        case 'l':
+                            if (length > 2) {
+                                switch (charAt(start + 2)) {
+                                    case 'i': return checkKeyword(3, ELIF);
+                                    case 's': return checkKeyword(3, ELSE);
+                                }
+                            }
+                            break;
+                    }
+                }
+                break;
+            case 'f':
+                if (length > 1) {
+                    switch (charAt(start + 1)) {
+                        case 'a': return checkKeyword(2, FALSE);
+                        case 'i': return checkKeyword(2, FINAL);
+                        case 'o': return checkKeyword(2, FOR);
+                        case 'u': return checkKeyword(2, FUN);
+                    }
+                }
+                break;
+            case 'i': return checkKeyword(1, IF);
+            case 'l': return checkKeyword(1, LET);
+            case 'm': return checkKeyword(1, MUT);
+            case 'n': return checkKeyword(1, NULL);
+            case 'o':
+                if (length > 1) {
+                    switch (charAt(start + 1)) {
+                        case 'f': return checkKeyword(2, OF);
+                        case 'v': return checkKeyword(2, OVERRIDE);
+                    }
+                }
+                break;
+            case 'p': return checkKeyword(1, PRIV);
+            case 'r':
+                if (length > 2) {
+                    switch (charAt(start + 2)) {
+                        case 'q': return checkKeyword(1, REQ);
+                        case 't': return checkKeyword(1, RETURN);
+                    }
+                }
+                break;
+            case 's':
+                if (length > 1) {
+                    switch (charAt(start + 1)) {
+                        case 'e': return checkKeyword(2, SELF);
+                        case 'u': return checkKeyword(2, SUPER);
+                    }
+                }
+                break;
+            case 't':
+                if (length > 1) {
+                    switch (charAt(start + 1)) {
+                        case 'e': return checkKeyword(2, TEMPLATE);
+                        case 'r': return checkKeyword(2, TRUE);
+                    }
+                }
+                break;
+            case 'v': return checkKeyword(1, VAL);
+            case 'w': return checkKeyword(1, WHILE);
+        }
+
+        return IDENTIFIER;
+    }
+
+    // type if the rest of the identifier, from the char at "checked" on, spells its keyword
+    private TokenType checkKeyword(int checked, TokenType type) {
+        String keyword = type.text;
+        if (current - start != keyword.length()) return IDENTIFIER;
+
+        for (int i = checked; i < keyword.length(); i++) {
+            if (charAt(start + i) != keyword.charAt(i)) return IDENTIFIER;
+        }
+
+        return type;
+    }
+
+    // The value is worked out while the digits are scanned, so nothing after the scanner has to
+    // parse them again.
     private void number() {
-        while (isDigit(peek())) advance();
+        long value = charAt(start) - '0';
+        boolean fits = true;
+        int digits = 1;
+        while (isDigit(peek())) {
+            int digit = advance() - '0';
+            if (value > (Long.MAX_VALUE - digit) / 10) fits = false;
+            value = value * 10 + digit;
+            digits++;
+        }
 
         // Look for a fractional part.
         if (peek() == '.' && isDigit(peekNext())) {
             // Consume the "."
             advance();
 
-            while (isDigit(peek())) advance();
+            int fraction = 0;
+            while (isDigit(peek())) {
+                int digit = advance() - '0';
+                if (digits < 18) value = value * 10 + digit;
+                digits++;
+                fraction++;
+            }
+
+            double real;
+            if (digits <= 15 && fraction < POWERS_OF_TEN.length) {
+                // both are exact as doubles, so the division rounds the way parsing would
+                real = value / POWERS_OF_TEN[fraction];
+            } else {
+                real = Double.parseDouble(chars(start, current));
+            }
+
+            if (Double.isInfinite(real)) {
+                error(line, start_column, column - start_column, "Number is too large.");
+            }
+            addToken(NUMBER, tokens.number(Double.doubleToRawLongBits(real), true));
+            return;
         }
 
-        addToken(NUMBER);
+        if (!fits) {
+            error(line, start_column, column - start_column, "Number is too large.");
+            value = 0;
+        }
+        addToken(NUMBER, tokens.number(value, false));
     }
 
-    private void string() {
-        while (peek() != '"' && !isAtEnd()) {
-            if (peek() == '\n') line++;
+    private void blockComment() {
+        while (peek() != ']' && peekNext() != '#' && !isAtEnd()) {
+            // comment text is never part of a lexeme
+            start = current;
+            if (peek() == '\n') {
+                line++;
+                column = 1;
+            }
+            advance();
+            // the run stops one short so the check above still sees a "#" after it
+            int run = plainRun(']', '#');
+            if (run > 1) skip(run - 1);
+        }
+
+        advance();
+        advance();
+    }
+
+    private void lineComment() {
+        // A comment goes until the end of the line.
+        while (peek() != '\n' && !isAtEnd()) {
+            start = current;
             advance();
+            skip(plainRun('\n', '\n'));
         }
+    }
+
+    private void string() {
+        stringBody();
 
         if (isAtEnd()) {
-            Kona.error(line, column, current - start, "Unterminated string.");
+            error(line, column, column - start_column, "Unterminated string.");
             return;
         }
 
@@ -266,21 +683,30 @@ class Scanner {
         addToken(STRING);
     }
 
-    private boolean match(char expected) {
-        if (isAtEnd() || source.charAt(current) != expected) return false;
+    // up to the closing quote or the end of the file
+    private void stringBody() {
+        while (peek() != '"' && !isAtEnd()) {
+            if (peek() == '\n') line++;
+            advance();
+            skip(plainRun('"', '\n'));
+        }
+    }
+
+    boolean match(char expected) {
+        if (isAtEnd() || buffer[current] != expected) return false;
 
         advance();
         return true;
     }
 
-    private char peek() {
+    char peek() {
         if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        return buffer[current];
     }
 
-    private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+    char peekNext() {
+        if (current + 1 >= limit && !ensure(2)) return '\0';
+        return buffer[current + 1];
     }
 
     private boolean isAlpha(char c) {
@@ -297,23 +723,170 @@ class Scanner {
         return c >= '0' && c <= '9';
     }
 
-    private boolean isAtEnd() {
-        return current >= source.length();
+    boolean isAtEnd() {
+        return current >= limit && !ensure(1);
     }
 
-    private char advance() {
+    char advance() {
+        // an unterminated "#[" comment advances past the end
+        if (isAtEnd()) return '\0';
         column++;
-        return source.charAt(current++);    // current returns value before incrementing
+        return buffer[current++];    // current returns value before incrementing
+    }
+
+    void error(int line, int column, int length, String message) {
+        if (held_errors == null) {
+            diagnostics.add(line, column, length, message);
+        } else {
+            held_errors.add(() -> diagnostics.add(line, column, length, message));
+        }
+    }
+
+    // How many chars from current on are plain text up to a, b or a new line, which the scanner
+    // can step over with skip. Only counts the chars already read in.
+    int plainRun(char a, char b) {
+        return SEARCH.plainEnd(buffer, current, limit, a, b) - current;
+    }
+
+    // how many chars from current on are c, out of the ones already read in
+    int sameRun(char c) {
+        return SEARCH.runEnd(buffer, current, limit, c) - current;
+    }
+
+    // steps over count chars of a run, none of which is a new line
+    final void skip(int count) {
+        current += count;
+        column += count;
+    }
+
+    // true once "count" chars from current are in the buffer, false if the source ends first
+    private boolean ensure(int count) {
+        while (current + count > limit) {
+            if (!fill()) return false;
+        }
+
+        return true;
+    }
+
+    // Drops the chars before the current lexeme and reads the next chunk behind the rest.
+    // A lexeme longer than the buffer (e.g. a big string literal) grows it.
+    private boolean fill() {
+        if (reader == null) return false;
+
+        if (start > 0) {
+            discarded += start;
+            System.arraycopy(buffer, start, buffer, 0, limit - start);
+            limit -= start;
+            current -= start;
+            start = 0;
+        }
+
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+
+        try {
+            int read = reader.read(buffer, limit, buffer.length - limit);
+            if (read <= 0) return false;
+            limit += read;
+            return true;
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
     }
 
     private void addToken(TokenType type) {
-        String text;
-        if (type == STRING) {
+        addToken(type, 0);
+    }
+
+    // value goes in the tokens' values column
+    private void addToken(TokenType type, int value) {
+        int length = column - start_column;
+        // the lexeme of punctuation and keywords is the type's text
+        if (type.text != null) {
+            tokens.add(type, discarded + start, length, line, start_column, null, 0);
+        } else if (type == STRING) {
             // Trim the surrounding quotes.
-            text = source.substring(start + 1, current - 1);
+            tokens.add(type, discarded + start + 1, length, line, start_column, keep(start + 1, current - 1, length - 2), 0);
+        } else if (type == IDENTIFIER) {
+            // the lexeme is the name in Symbols
+            tokens.add(type, discarded + start, length, line, start_column, null, symbol());
         } else {
-            text = source.substring(start, current);
+            tokens.add(type, discarded + start, length, line, start_column, keep(start, current, length), value);
+        }
+    }
+
+    // id of the identifier from start to current
+    private int symbol() {
+        int length = current - start;
+        int hash = 0;
+        for (int i = start; i < current; i++) {
+            hash = 31 * hash + charAt(i);
+        }
+
+        int mask = cached_names.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        for (String name = cached_names[slot]; name != null; name = cached_names[slot]) {
+            // the hash of a string is the same sum, and a string keeps it
+            if (name.hashCode() == hash && name.length() == length && sameChars(name)) return cached_ids[slot];
+            slot = (slot + 1) & mask;
+        }
+
+        int id = symbols.intern(chars(start, current));
+        cached_names[slot] = symbols.name(id);
+        cached_ids[slot] = id;
+        if (++cached * 2 > cached_names.length) growSymbolCache();
+        return id;
+    }
+
+    // the ASCII chars from "from" up to "to", read through charAt so any scanner can give them
+    private String chars(int from, int to) {
+        char[] chars = new char[to - from];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = charAt(from + i);
+        }
+
+        return new String(chars);
+    }
+
+    private boolean sameChars(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (charAt(start + i) != name.charAt(i)) return false;
+        }
+
+        return true;
+    }
+
+    private void growSymbolCache() {
+        String[] names = cached_names;
+        int[] ids = cached_ids;
+        cached_names = new String[names.length * 2];
+        cached_ids = new int[names.length * 2];
+
+        int mask = cached_names.length - 1;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == null) continue;
+            int hash = names[i].hashCode();
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (cached_names[slot] != null) slot = (slot + 1) & mask;
+            cached_names[slot] = names[i];
+            cached_ids[slot] = ids[i];
         }
-        tokens.add(new Token(type, text, line, column - (current - start), current - start));
+    }
+
+    // The lexeme between from and to if the source can't give it back later, null if it can.
+    // chars is how many chars the lexeme has.
+    String keep(int from, int to, int chars) {
+        if (reader == null) return null;
+        return new String(buffer, from, to - from);
+    }
+
+    char charAt(int position) {
+        return buffer[position];
+    }
+
+    @Override
+    public String text(int offset, int size) {
+        return new String(buffer, offset, size);
     }
 }
\ No newline at end of file
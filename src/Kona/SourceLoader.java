@@ -0,0 +1,144 @@
+package Kona;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+// Reads source files for compiles of many files, each on a virtual thread, so waiting on a slow
+// disk or a network mount overlaps with scanning and parsing the files already read. A file is
+// read whole into a direct buffer from a pool and handed on to be scanned as bytes. Only UTF-8
+// sources can be scanned that way; others, and files too big to be worth copying, are left for the
+// scanner to map or stream itself.
+class SourceLoader implements AutoCloseable {
+    // files read at the same time, well under the open file limit
+    private static final int READERS = 256;
+    // bigger files are mapped instead, their pages are read as they are scanned
+    private static final int MAX_COPY = 8 << 20;
+    // buffers come in powers of two from 4 KB
+    private static final int MIN_SHIFT = 12;
+    // bytes of free buffers the pool keeps, the rest are left to be collected
+    private static final long MAX_KEPT = 64L << 20;
+
+    static class Source {
+        final Path file;
+        // the file's bytes from 0 to the limit, null if the scanner reads the file itself
+        final ByteBuffer bytes;
+        // why the file couldn't be read, if it couldn't: an IOException, or whatever else went
+        // wrong reading it, like running out of direct memory
+        final Throwable error;
+
+        Source(Path file, ByteBuffer bytes, Throwable error) {
+            this.file = file;
+            this.bytes = bytes;
+            this.error = error;
+        }
+    }
+
+    private final boolean copying;
+    private final ExecutorService readers = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore open_files = new Semaphore(READERS);
+    // free buffers by size class
+    private final List<ArrayDeque<ByteBuffer>> free = new ArrayList<>();
+    private long kept = 0;
+
+    SourceLoader(Charset charset) {
+        this.copying = charset.equals(StandardCharsets.UTF_8);
+        for (int shift = MIN_SHIFT; 1 << shift < MAX_COPY << 1; shift++) free.add(new ArrayDeque<>());
+    }
+
+    // The file's size, looked up on a virtual thread so the sizes of many files are asked for at
+    // once. 0 if it can't be, reading the file tells why.
+    CompletableFuture<Long> size(Path file) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return Files.size(file);
+            } catch (IOException unreadable) {
+                return 0L;
+            }
+        }, readers);
+    }
+
+    // Reads the file on a virtual thread and hands it to "loaded" on that thread. "loaded" is
+    // always called, with the error if the file couldn't be read.
+    void load(Path file, Consumer<Source> loaded) {
+        readers.execute(() -> {
+            open_files.acquireUninterruptibly();
+            Source source;
+            try {
+                source = read(file);
+            } catch (Throwable error) {
+                source = new Source(file, null, error);
+            } finally {
+                open_files.release();
+            }
+            loaded.accept(source);
+        });
+    }
+
+    private Source read(Path file) {
+        if (!copying) return new Source(file, null, null);
+
+        try (FileChannel channel = FileChannel.open(file)) {
+            long size = channel.size();
+            if (size > MAX_COPY) return new Source(file, null, null);
+
+            ByteBuffer buffer = take((int) size);
+            try {
+                // a file that shrank since its size was taken ends early, one that grew is cut
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) { }
+            } catch (Throwable error) {
+                release(buffer);
+                throw error;
+            }
+            return new Source(file, buffer.flip(), null);
+        } catch (IOException error) {
+            return new Source(file, null, error);
+        }
+    }
+
+    // gives the source's buffer back to the pool once nothing reads it anymore
+    void release(Source source) {
+        if (source.bytes != null) release(source.bytes);
+    }
+
+    private ByteBuffer take(int size) {
+        int size_class = sizeClass(size);
+        ByteBuffer buffer;
+        synchronized (this) {
+            buffer = free.get(size_class).poll();
+            if (buffer != null) kept -= buffer.capacity();
+        }
+        if (buffer == null) buffer = ByteBuffer.allocateDirect(1 << (size_class + MIN_SHIFT));
+        return buffer.clear().limit(size);
+    }
+
+    private void release(ByteBuffer buffer) {
+        synchronized (this) {
+            if (kept + buffer.capacity() > MAX_KEPT) return;
+            kept += buffer.capacity();
+            free.get(sizeClass(buffer.capacity())).push(buffer);
+        }
+    }
+
+    private static int sizeClass(int size) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+        return Math.max(shift - MIN_SHIFT, 0);
+    }
+
+    @Override
+    public void close() {
+        readers.close();
+    }
+}
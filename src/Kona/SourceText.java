@@ -0,0 +1,6 @@
+package Kona;
+
+// Source that a scanner keeps around so lexemes can be cut out of it when they are needed.
+interface SourceText {
+    String text(int offset, int size);
+}
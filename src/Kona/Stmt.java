@@ -2,7 +2,7 @@ package Kona;
 
 import java.util.List;
 
-abstract class Stmt {
+abstract sealed class Stmt {
     interface Visitor<R> {
         R visitDeclarationsStmt(Declarations stmt);
         R visitBlockStmt(Block stmt);
@@ -32,7 +32,7 @@ abstract class Stmt {
         R visitWhileStmt(While stmt);
         R visitForStmt(For stmt);
     }
-    static class Declarations extends Stmt {
+    static final class Declarations extends Stmt {
         Declarations(List<Stmt> declarations) {
             this.declarations = declarations;
         }
@@ -44,7 +44,7 @@ abstract class Stmt {
 
         final List<Stmt> declarations;
     }
-    static class Block extends Stmt {
+    static final class Block extends Stmt {
         Block(List<Stmt> statements) {
             this.statements = statements;
         }
@@ -56,7 +56,7 @@ abstract class Stmt {
 
         final List<Stmt> statements;
     }
-    static class Template extends Stmt {
+    static final class Template extends Stmt {
         Template(Token name, Token parent, Stmt.TemplateFields fields, Stmt.TemplateMethods methods) {
             this.name = name;
             this.parent = parent;
@@ -74,7 +74,7 @@ abstract class Stmt {
         final Stmt.TemplateFields fields;
         final Stmt.TemplateMethods methods;
     }
-    static class TemplateFields extends Stmt {
+    static final class TemplateFields extends Stmt {
         TemplateFields(List<Stmt.TemplateField> fields) {
             this.fields = fields;
         }
@@ -86,7 +86,7 @@ abstract class Stmt {
 
         final List<Stmt.TemplateField> fields;
     }
-    static class TemplateField extends Stmt {
+    static final class TemplateField extends Stmt {
         TemplateField(Token def, Token field) {
             this.def = def;
             this.field = field;
@@ -100,7 +100,7 @@ abstract class Stmt {
         final Token def;
         final Token field;
     }
-    static class TemplateMethods extends Stmt {
+    static final class TemplateMethods extends Stmt {
         TemplateMethods(List<TemplateMethod> methods) {
             this.methods = methods;
         }
@@ -112,7 +112,7 @@ abstract class Stmt {
 
         final List<TemplateMethod> methods;
     }
-    static class TemplateMethod extends Stmt {
+    static final class TemplateMethod extends Stmt {
         TemplateMethod(Token def, Stmt.Function method) {
             this.def = def;
             this.method = method;
@@ -126,7 +126,7 @@ abstract class Stmt {
         final Token def;
         final Stmt.Function method;
     }
-    static class Class extends Stmt {
+    static final class Class extends Stmt {
         Class(Token mut, Token name, Token parent, Stmt.Templates templates, Stmt.Require req, Stmt.Fields fields, Stmt.Methods methods) {
             this.mut = mut;
             this.name = name;
@@ -150,7 +150,7 @@ abstract class Stmt {
         final Stmt.Fields fields;
         final Stmt.Methods methods;
     }
-    static class Require extends Stmt {
+    static final class Require extends Stmt {
         Require(List<Token> templates) {
             this.templates = templates;
         }
@@ -162,7 +162,7 @@ abstract class Stmt {
 
         final List<Token> templates;
     }
-    static class Templates extends Stmt {
+    static final class Templates extends Stmt {
         Templates(List<Token> templates) {
             this.templates = templates;
         }
@@ -174,7 +174,7 @@ abstract class Stmt {
 
         final List<Token> templates;
     }
-    static class Fields extends Stmt {
+    static final class Fields extends Stmt {
         Fields(List<Stmt.Field> fields) {
             this.fields = fields;
         }
@@ -186,7 +186,7 @@ abstract class Stmt {
 
         final List<Stmt.Field> fields;
     }
-    static class Field extends Stmt {
+    static final class Field extends Stmt {
         Field(Token priv, Token mutable, Token name) {
             this.priv = priv;
             this.mutable = mutable;
@@ -202,7 +202,7 @@ abstract class Stmt {
         final Token mutable;
         final Token name;
     }
-    static class Methods extends Stmt {
+    static final class Methods extends Stmt {
         Methods(List<Stmt.Method> methods) {
             this.methods = methods;
         }
@@ -214,7 +214,7 @@ abstract class Stmt {
 
         final List<Stmt.Method> methods;
     }
-    static class Method extends Stmt {
+    static final class Method extends Stmt {
         Method(Token override, Token priv, Token mut, Stmt.Function method) {
             this.override = override;
             this.priv = priv;
@@ -232,7 +232,7 @@ abstract class Stmt {
         final Token mut;
         final Stmt.Function method;
     }
-    static class Expression extends Stmt {
+    static final class Expression extends Stmt {
         Expression(Expr expression) {
             this.expression = expression;
         }
@@ -244,7 +244,7 @@ abstract class Stmt {
 
         final Expr expression;
     }
-    static class Function extends Stmt {
+    static final class Function extends Stmt {
         Function(Token name, Stmt.Params parameters, Stmt.Block body) {
             this.name = name;
             this.parameters = parameters;
@@ -260,7 +260,7 @@ abstract class Stmt {
         final Stmt.Params parameters;
         final Stmt.Block body;
     }
-    static class Params extends Stmt {
+    static final class Params extends Stmt {
         Params(List<Token> parameters) {
             this.parameters = parameters;
         }
@@ -272,7 +272,7 @@ abstract class Stmt {
 
         final List<Token> parameters;
     }
-    static class If extends Stmt {
+    static final class If extends Stmt {
         If(Expr condition, Block thenBranch, Stmt.ElseIfs elseIfBranches, Block elseBranch) {
             this.condition = condition;
             this.thenBranch = thenBranch;
@@ -290,7 +290,7 @@ abstract class Stmt {
         final Stmt.ElseIfs elseIfBranches;
         final Block elseBranch;
     }
-    static class ElseIfs extends Stmt {
+    static final class ElseIfs extends Stmt {
         ElseIfs(List<Stmt.ElseIf> elseIfBranches) {
             this.elseIfBranches = elseIfBranches;
         }
@@ -302,7 +302,7 @@ abstract class Stmt {
 
         final List<Stmt.ElseIf> elseIfBranches;
     }
-    static class ElseIf extends Stmt {
+    static final class ElseIf extends Stmt {
         ElseIf(Expr condition, Block body) {
             this.condition = condition;
             this.body = body;
@@ -316,7 +316,7 @@ abstract class Stmt {
         final Expr condition;
         final Block body;
     }
-    static class Print extends Stmt {
+    static final class Print extends Stmt {
         Print(Expr expression) {
             this.expression = expression;
         }
@@ -328,7 +328,7 @@ abstract class Stmt {
 
         final Expr expression;
     }
-    static class Return extends Stmt {
+    static final class Return extends Stmt {
         Return(Token keyword, Expr value) {
             this.keyword = keyword;
             this.value = value;
@@ -342,7 +342,7 @@ abstract class Stmt {
         final Token keyword;
         final Expr value;
     }
-    static class Val extends Stmt {
+    static final class Val extends Stmt {
         Val(List<Token> names, List<Expr> initializer) {
             this.names = names;
             this.initializer = initializer;
@@ -356,7 +356,7 @@ abstract class Stmt {
         final List<Token> names;
         final List<Expr> initializer;
     }
-    static class Mut extends Stmt {
+    static final class Mut extends Stmt {
         Mut(List<Token> names, List<Expr> initializer) {
             this.names = names;
             this.initializer = initializer;
@@ -370,7 +370,7 @@ abstract class Stmt {
         final List<Token> names;
         final List<Expr> initializer;
     }
-    static class Let extends Stmt {
+    static final class Let extends Stmt {
         Let(List<Token> names, List<Expr> initializer) {
             this.names = names;
             this.initializer = initializer;
@@ -384,7 +384,7 @@ abstract class Stmt {
         final List<Token> names;
         final List<Expr> initializer;
     }
-    static class While extends Stmt {
+    static final class While extends Stmt {
         While(Expr condition, Block body) {
             this.condition = condition;
             this.body = body;
@@ -398,7 +398,7 @@ abstract class Stmt {
         final Expr condition;
         final Block body;
     }
-    static class For extends Stmt {
+    static final class For extends Stmt {
         For(Token arrayName, Token itemName, Token itemIndex, Block body) {
             this.arrayName = arrayName;
             this.itemName = itemName;
@@ -0,0 +1,39 @@
+package Kona;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Names of identifiers, each given a dense int id the first time a scanner sees it, so later
+// passes can key their tables by id instead of by string. A table belongs to a compilation session,
+// or to all the sessions of a project so its files agree on the ids, and goes away with them: a
+// daemon doesn't keep the names of every file it ever compiled. Safe to share between threads.
+class Symbols {
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    // name of each id, only written under the lock and before the id is published in ids
+    private volatile String[] names = new String[1024];
+    private int count = 0;
+
+    int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+
+        synchronized (this) {
+            id = ids.get(name);
+            if (id != null) return id;
+
+            if (count == names.length) names = Arrays.copyOf(names, count * 2);
+            names[count] = name;
+            ids.put(name, count);
+            return count++;
+        }
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+
+    // -1 if no scanner has seen the name
+    int id(String name) {
+        return ids.getOrDefault(name, -1);
+    }
+}
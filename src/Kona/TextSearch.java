@@ -0,0 +1,60 @@
+package Kona;
+
+// Finds where a run of chars the scanner would step over one at a time ends, so it can move over
+// the whole run at once. This one looks at a char at a time; when the JVM is started with
+// "--add-modules jdk.incubator.vector" it is replaced by VectorTextSearch, which compares a
+// vector of chars at a time. That one is in src-vector and compiled on its own, see README.txt,
+// so the compiler builds without the incubating module and its warning; without it on the class
+// path this one is kept.
+class TextSearch {
+    static final TextSearch SEARCH = load();
+
+    private static TextSearch load() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (TextSearch) Class.forName("Kona.VectorTextSearch").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError error) {
+                // keep the scalar search
+            }
+        }
+
+        return new TextSearch();
+    }
+
+    // first index from "from" up to "to" holding a, b or a new line, "to" if there is none
+    int plainEnd(char[] text, int from, int to, char a, char b) {
+        for (int i = from; i < to; i++) {
+            char c = text[i];
+            if (c == a || c == b || c == '\n') return i;
+        }
+
+        return to;
+    }
+
+    // same for UTF-8, which also stops at the first byte that is not ASCII
+    int plainEnd(byte[] text, int from, int to, byte a, byte b) {
+        for (int i = from; i < to; i++) {
+            byte c = text[i];
+            if (c == a || c == b || c == '\n' || c < 0) return i;
+        }
+
+        return to;
+    }
+
+    // first index from "from" up to "to" not holding c, "to" if there is none
+    int runEnd(char[] text, int from, int to, char c) {
+        for (int i = from; i < to; i++) {
+            if (text[i] != c) return i;
+        }
+
+        return to;
+    }
+
+    int runEnd(byte[] text, int from, int to, byte c) {
+        for (int i = from; i < to; i++) {
+            if (text[i] != c) return i;
+        }
+
+        return to;
+    }
+}
@@ -2,20 +2,67 @@ package Kona;
 
 class Token {
     final TokenType type;
-    final String lexeme;
     final int line;
     final int column;
     final int length;
+    // id of the name in Symbols for identifiers, -1 for other tokens
+    final int symbol;
+    // where the token is in the TokenBuffer it came from, -1 if it didn't come from one
+    final int index;
+    private String lexeme;
+    // a lexeme that has not been asked for yet is still a slice of the source
+    private final SourceText source;
+    private final int offset;
+    private final int size;
 
     Token(TokenType type, String lexeme, int line, int column, int length) {
+        this(type, lexeme, line, column, length, -1);
+    }
+
+    Token(TokenType type, String lexeme, int line, int column, int length, int symbol) {
+        this(type, lexeme, line, column, length, symbol, -1);
+    }
+
+    Token(TokenType type, String lexeme, int line, int column, int length, int symbol, int index) {
         this.type = type;
         this.lexeme = lexeme;
         this.line = line;
         this.column = column;
         this.length = length;
+        this.symbol = symbol;
+        this.index = index;
+        this.source = null;
+        this.offset = 0;
+        this.size = 0;
+    }
+
+    Token(TokenType type, SourceText source, int offset, int size, int line, int column, int length, int index) {
+        this.type = type;
+        this.source = source;
+        this.offset = offset;
+        this.size = size;
+        this.line = line;
+        this.column = column;
+        this.length = length;
+        this.symbol = -1;
+        this.index = index;
+    }
+
+    String lexeme() {
+        if (lexeme == null) {
+            lexeme = source.text(offset, size);
+        }
+
+        return lexeme;
+    }
+
+    // the token "shift" places on in its buffer and "lines" lines down, as an edit before it moved it
+    Token moved(int shift, int lines) {
+        if (lexeme == null) return new Token(type, source, offset, size, line + lines, column, length, index + shift);
+        return new Token(type, lexeme, line + lines, column, length, symbol, index < 0 ? index : index + shift);
     }
 
     public String toString() {
-        return type + " " + lexeme + " " + line + " " + column + " " + length;
+        return type + " " + lexeme() + " " + line + " " + column + " " + length;
     }
-}
\ No newline at end of file
+}
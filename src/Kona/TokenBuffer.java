@@ -0,0 +1,617 @@
+package Kona;
+
+import java.util.Arrays;
+
+// The tokens of a source as parallel arrays instead of one object per token. A Token is only made
+// when a diagnostic or the AST asks for one.
+class TokenBuffer implements TokenSource {
+    // Tokens from "from" on that an edit changed: "removed" of the old ones became "added" new
+    // ones, and the ones after moved by offset_delta chars and line_delta lines.
+    static class Change {
+        Change(int from, int removed, int added, int offset_delta, int line_delta) {
+            this.from = from;
+            this.removed = removed;
+            this.added = added;
+            this.offset_delta = offset_delta;
+            this.line_delta = line_delta;
+        }
+
+        final int from;
+        final int removed;
+        final int added;
+        final int offset_delta;
+        final int line_delta;
+    }
+
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final byte NUMBER_TYPE = (byte) TokenType.NUMBER.ordinal();
+    private static final byte IDENTIFIER_TYPE = (byte) TokenType.IDENTIFIER.ordinal();
+    private static final byte NEWLINE_TYPE = (byte) TokenType.NEWLINE.ordinal();
+    private static final byte TABS_TYPE = (byte) TokenType.TABS_INDENT.ordinal();
+    private static final byte SPACES_TYPE = (byte) TokenType.SPACES_INDENT.ordinal();
+    // shared lexemes of indentation runs, by length
+    private static final String[] TABS = new String[64];
+    private static final String[] SPACES = new String[64];
+
+    static {
+        for (int i = 0; i < TABS.length; i++) {
+            TABS[i] = "\t".repeat(i);
+            SPACES[i] = " ".repeat(i);
+        }
+    }
+
+    private byte[] types;
+    private int[] offsets;
+    private int[] lengths;
+    private int[] lines;
+    private int[] columns;
+    // what a token holds besides its text: for an indent token how many levels deep it is, for an
+    // identifier the id of its name in Symbols, for a number where its value is in numbers
+    private int[] values;
+    // values of number literals, a long or the bits of a double, in the order of their tokens
+    private long[] numbers = new long[0];
+    private int number_count = 0;
+    // numbers dropped with the tokens they belong to
+    private int numbers_discarded = 0;
+    // lexemes the source can't give back later, null where it can
+    private String[] lexemes;
+    private SourceText source;
+    private final Symbols symbols;
+    private int count = 0;
+    // tokens dropped from the front when only a window of them is kept, indexes count them
+    private int discarded = 0;
+    // tokens before this one may be dropped to make room
+    private int kept_from = 0;
+    // indexes of the NEWLINE and indentation tokens, found up to marked_to as they are asked for
+    private int[] line_marks = new int[0];
+    private int mark_count = 0;
+    private int marked_to = 0;
+    // An edited buffer keeps the tokens from position gap on at the end of the arrays, gap_size
+    // places further on, so the next edit near the same place only moves the tokens in between.
+    // Their offsets and lines are the ones they had when they went there, the edits since moved
+    // them tail_offset chars and tail_lines lines.
+    private int gap = 0;
+    private int gap_size = 0;
+    private int tail_offset = 0;
+    private int tail_lines = 0;
+    // numbers of tokens that edits removed, left in numbers until there are enough to clear out
+    private int numbers_unused = 0;
+    // index of the first indent token, the line the scanner took the unit from, -1 if none
+    private int first_indent = -1;
+    // the arrays are made on the first add, a buffer that only keeps a window never needs them big
+    private final int initial_capacity;
+    private boolean indent_tabs = true;
+    private int indent_width = 1;
+
+    TokenBuffer(SourceText source, Symbols symbols) {
+        this(source, 1024, symbols);
+    }
+
+    TokenBuffer(SourceText source, int capacity, Symbols symbols) {
+        this.source = source;
+        this.symbols = symbols;
+        this.initial_capacity = capacity;
+        this.types = new byte[0];
+        this.offsets = new int[0];
+        this.lengths = new int[0];
+        this.lines = new int[0];
+        this.columns = new int[0];
+        this.values = new int[0];
+        this.lexemes = new String[0];
+    }
+
+    SourceText source() {
+        return source;
+    }
+
+    // the table the ids of the identifiers are in
+    Symbols symbols() {
+        return symbols;
+    }
+
+    // offset is where the lexeme starts in the source, which for strings is after the quote.
+    // lexeme is null unless the source can't give it back later.
+    void add(TokenType type, int offset, int length, int line, int column, String lexeme, int value) {
+        if (gap < count) moveGap(count);
+        if (count == types.length) makeRoom();
+        if (first_indent < 0 && (type == TokenType.TABS_INDENT || type == TokenType.SPACES_INDENT)) first_indent = discarded + count;
+
+        types[count] = (byte) type.ordinal();
+        offsets[count] = offset;
+        lengths[count] = length;
+        lines[count] = line;
+        columns[count] = column;
+        values[count] = value;
+        lexemes[count] = lexeme;
+        count++;
+        gap = count;
+    }
+
+    // adds the tokens of other after these, both read the same source
+    void append(TokenBuffer other) {
+        moveGap(count);
+        other.moveGap(other.count);
+        if (count + other.count > types.length) grow(count + other.count);
+        if (first_indent < 0 && other.first_indent >= 0) first_indent = discarded + count + other.first_indent;
+        int first = count;
+
+        System.arraycopy(other.types, 0, types, count, other.count);
+        System.arraycopy(other.offsets, 0, offsets, count, other.count);
+        System.arraycopy(other.lengths, 0, lengths, count, other.count);
+        System.arraycopy(other.lines, 0, lines, count, other.count);
+        System.arraycopy(other.columns, 0, columns, count, other.count);
+        System.arraycopy(other.values, 0, values, count, other.count);
+        System.arraycopy(other.lexemes, 0, lexemes, count, other.count);
+        count += other.count;
+        gap = count;
+
+        // the numbers of other go after these, and its tokens point past them
+        int shift = number_count - other.numbers_discarded;
+        for (int i = first; i < count; i++) {
+            if (types[i] == NUMBER_TYPE) values[i] += shift << 1;
+        }
+
+        int needed = number_count - numbers_discarded + other.number_count - other.numbers_discarded;
+        if (needed > numbers.length) numbers = Arrays.copyOf(numbers, needed);
+        System.arraycopy(other.numbers, 0, numbers, number_count - numbers_discarded, other.number_count - other.numbers_discarded);
+        number_count += other.number_count - other.numbers_discarded;
+    }
+
+    // Index after the last new line token whose line ends before offset, where scanning can start
+    // again as if from the start of the file. 0 if there is none.
+    int lineStartBefore(int offset) {
+        int low = 0;
+        int high = count;
+        // the first token at or after offset
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (offset(middle) < offset) low = middle + 1;
+            else high = middle;
+        }
+
+        for (int i = low - 1; i >= 0; i--) {
+            if (types[at(i)] == NEWLINE_TYPE && offset(i) + 1 <= offset) return i + 1;
+        }
+
+        return 0;
+    }
+
+    // where the first indent token starts, the line the scanner took the unit from, -1 if none
+    int firstIndentOffset() {
+        return first_indent < 0 ? -1 : offset(first_indent);
+    }
+
+    // Puts the first "added" tokens of other, which scanned the edited text, in place of the ones
+    // from "from" up to "to", and moves the ones after by the edit's deltas. The tokens after are
+    // left where they are in the arrays, see gap, so an edit costs what it changed and how far it
+    // is from the one before, not the size of the file. Only for a buffer that holds all of its
+    // tokens.
+    void replace(int from, int to, TokenBuffer other, int added, int offset_delta, int line_delta) {
+        moveGap(to);
+        for (int i = from; i < to; i++) {
+            if (types[i] == NUMBER_TYPE) numbers_unused++;
+        }
+        Arrays.fill(lexemes, from, to, null);
+        gap_size += to - from;
+        count -= to - from;
+        gap = from;
+        if (gap_size < added) grow(count + added);
+
+        System.arraycopy(other.types, 0, types, from, added);
+        System.arraycopy(other.offsets, 0, offsets, from, added);
+        System.arraycopy(other.lengths, 0, lengths, from, added);
+        System.arraycopy(other.lines, 0, lines, from, added);
+        System.arraycopy(other.columns, 0, columns, from, added);
+        System.arraycopy(other.values, 0, values, from, added);
+        System.arraycopy(other.lexemes, 0, lexemes, from, added);
+        gap_size -= added;
+        count += added;
+        gap = from + added;
+        tail_offset += offset_delta;
+        tail_lines += line_delta;
+
+        // the numbers of the new tokens go after all the others
+        int numbers_added = other.numbersBefore(added);
+        int first_number = number_count - numbers_discarded;
+        if (first_number + numbers_added > numbers.length) {
+            numbers = Arrays.copyOf(numbers, Math.max(first_number + numbers_added, numbers.length * 2));
+        }
+        System.arraycopy(other.numbers, 0, numbers, first_number, numbers_added);
+        number_count += numbers_added;
+        for (int i = from; i < from + added; i++) {
+            if (types[i] == NUMBER_TYPE) values[i] += first_number << 1;
+        }
+        if (numbers_unused > 64 && numbers_unused * 2 > number_count - numbers_discarded) dropUnusedNumbers();
+
+        if (first_indent < 0 || first_indent >= from) {
+            if (other.first_indent >= 0 && other.first_indent < added) {
+                first_indent = from + other.first_indent;
+            } else if (first_indent >= to) {
+                first_indent += added - (to - from);
+            } else if (first_indent >= 0) {
+                first_indent = nextIndent(from + added);
+            }
+        }
+
+        source = other.source;
+        forgetLineMarks(from);
+    }
+
+    // Moves the gap to before position "to". The tokens it passes go from the front to the tail or
+    // back, taking on or giving up how far the tail moved.
+    private void moveGap(int to) {
+        // with no tail the gap is all the room after the tokens
+        if (gap == count) gap_size = types.length - count;
+        if (to < gap) {
+            move(to, to + gap_size, gap - to);
+            for (int i = to + gap_size; i < gap + gap_size; i++) {
+                offsets[i] -= tail_offset;
+                lines[i] -= tail_lines;
+            }
+            Arrays.fill(lexemes, to, Math.min(gap, to + gap_size), null);
+        } else if (to > gap) {
+            for (int i = gap + gap_size; i < to + gap_size; i++) {
+                offsets[i] += tail_offset;
+                lines[i] += tail_lines;
+            }
+            move(gap + gap_size, gap, to - gap);
+            Arrays.fill(lexemes, Math.max(to, gap + gap_size), to + gap_size, null);
+        }
+
+        gap = to;
+        if (gap == count) {
+            tail_offset = 0;
+            tail_lines = 0;
+        }
+    }
+
+    // moves "length" tokens in the arrays from position "from" to position "to"
+    private void move(int from, int to, int length) {
+        System.arraycopy(types, from, types, to, length);
+        System.arraycopy(offsets, from, offsets, to, length);
+        System.arraycopy(lengths, from, lengths, to, length);
+        System.arraycopy(lines, from, lines, to, length);
+        System.arraycopy(columns, from, columns, to, length);
+        System.arraycopy(values, from, values, to, length);
+        System.arraycopy(lexemes, from, lexemes, to, length);
+    }
+
+    // where the token at index is in the arrays
+    private int at(int index) {
+        int i = index - discarded;
+        return i < gap ? i : i + gap_size;
+    }
+
+    // index of the first indent token from index on, -1 if there is none
+    private int nextIndent(int index) {
+        for (int i = index; i < size(); i++) {
+            byte type = types[at(i)];
+            if (type == TABS_TYPE || type == SPACES_TYPE) return i;
+        }
+
+        return -1;
+    }
+
+    // Clears the numbers of removed tokens out of numbers. The others move up in the order of
+    // their tokens.
+    private void dropUnusedNumbers() {
+        long[] kept = new long[Math.max(16, number_count - numbers_discarded - numbers_unused)];
+        int kept_count = 0;
+        for (int index = discarded; index < size(); index++) {
+            int i = at(index);
+            if (types[i] != NUMBER_TYPE) continue;
+
+            kept[kept_count] = numbers[(values[i] >>> 1) - numbers_discarded];
+            values[i] = (numbers_discarded + kept_count) << 1 | (values[i] & 1);
+            kept_count++;
+        }
+
+        numbers = kept;
+        number_count = numbers_discarded + kept_count;
+        numbers_unused = 0;
+    }
+
+    // how many numbers the tokens before index have
+    private int numbersBefore(int index) {
+        for (int i = index - 1; i >= 0; i--) {
+            if (types[i] == NUMBER_TYPE) return (values[i] >>> 1) + 1 - numbers_discarded;
+        }
+
+        return 0;
+    }
+
+    // lets the tokens before "before" go the next time room is needed, the last token always stays
+    void release(int before) {
+        kept_from = Math.max(kept_from, Math.min(before, discarded + count - 1));
+    }
+
+    // Synchronized as parts of the buffer can be parsed on several threads, and the marks are
+    // found as far as one of them asks.
+    @Override
+    public synchronized int nextLineMark(int index) {
+        while ((mark_count == 0 || line_marks[mark_count - 1] < index) && marked_to < size()) {
+            byte type = types[at(marked_to)];
+            if (type == NEWLINE_TYPE || type == TABS_TYPE || type == SPACES_TYPE) {
+                if (mark_count == line_marks.length) line_marks = Arrays.copyOf(line_marks, Math.max(64, mark_count * 2));
+                line_marks[mark_count++] = marked_to;
+            }
+            marked_to++;
+        }
+
+        int low = markAtOrAfter(index);
+        return low < mark_count ? line_marks[low] : size() - 1;
+    }
+
+    // the first of the found marks at or after index, mark_count if there is none
+    private int markAtOrAfter(int index) {
+        int low = 0;
+        int high = mark_count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (line_marks[middle] < index) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private void forgetLineMarks() {
+        mark_count = 0;
+        marked_to = discarded;
+    }
+
+    // forgets the marks from index on, they are found again when they are asked for
+    private void forgetLineMarks(int index) {
+        mark_count = markAtOrAfter(index);
+        marked_to = Math.min(marked_to, index);
+    }
+
+    // index after the last token, counting the ones let go
+    int size() {
+        return discarded + count;
+    }
+
+    @Override
+    public TokenType type(int index) {
+        return TYPES[types[at(index)]];
+    }
+
+    TokenType lastType() {
+        return count == 0 ? null : TYPES[types[at(discarded + count - 1)]];
+    }
+
+    int offset(int index) {
+        int i = index - discarded;
+        return i < gap ? offsets[i] : offsets[i + gap_size] + tail_offset;
+    }
+
+    @Override
+    public int length(int index) {
+        return lengths[at(index)];
+    }
+
+    int line(int index) {
+        int i = index - discarded;
+        return i < gap ? lines[i] : lines[i + gap_size] + tail_lines;
+    }
+
+    @Override
+    public int column(int index) {
+        return columns[at(index)];
+    }
+
+    // levels of indentation of an indent token, -1 if it uses the wrong kind of whitespace
+    @Override
+    public int depth(int index) {
+        return values[at(index)];
+    }
+
+    int symbol(int index) {
+        return values[at(index)];
+    }
+
+    // Keeps the value of a number literal that is about to be added, and gives the value for its
+    // token: where the number is, shifted left, with the low bit set for a double.
+    int number(long value, boolean floating) {
+        int index = number_count - numbers_discarded;
+        if (index == numbers.length) numbers = Arrays.copyOf(numbers, Math.max(16, index * 2));
+
+        numbers[index] = value;
+        return number_count++ << 1 | (floating ? 1 : 0);
+    }
+
+    @Override
+    public boolean isFloat(int index) {
+        return (values[at(index)] & 1) != 0;
+    }
+
+    @Override
+    public long longValue(int index) {
+        return numbers[(values[at(index)] >>> 1) - numbers_discarded];
+    }
+
+    @Override
+    public double doubleValue(int index) {
+        return Double.longBitsToDouble(longValue(index));
+    }
+
+    void setIndentation(boolean tabs, int width) {
+        this.indent_tabs = tabs;
+        this.indent_width = width;
+    }
+
+    @Override
+    public boolean indentTabs() {
+        return indent_tabs;
+    }
+
+    // spaces per level when indenting with spaces
+    @Override
+    public int indentWidth() {
+        return indent_width;
+    }
+
+    String lexeme(int index) {
+        int i = at(index);
+        String shared = sharedLexeme(i);
+        if (shared != null) return shared;
+        return source.text(offset(index), size(i));
+    }
+
+    // literals only cut their lexeme out of the source if it is asked for
+    @Override
+    public Token token(int index) {
+        int i = at(index);
+        String shared = sharedLexeme(i);
+        if (shared != null) {
+            int symbol = types[i] == TokenType.IDENTIFIER.ordinal() ? values[i] : -1;
+            return new Token(TYPES[types[i]], shared, line(index), columns[i], lengths[i], symbol, index);
+        }
+
+        return new Token(TYPES[types[i]], source, offset(index), size(i), line(index), columns[i], lengths[i], index);
+    }
+
+    // the lexeme if it doesn't have to be cut out of the source, by position in the arrays
+    private String sharedLexeme(int index) {
+        TokenType type = TYPES[types[index]];
+        if (type.text != null) return type.text;
+        if (type == TokenType.IDENTIFIER) return symbols.name(values[index]);
+        if (lexemes[index] != null) return lexemes[index];
+
+        int length = lengths[index];
+        if (type == TokenType.TABS_INDENT) return length < TABS.length ? TABS[length] : "\t".repeat(length);
+        if (type == TokenType.SPACES_INDENT) return length < SPACES.length ? SPACES[length] : " ".repeat(length);
+        return null;
+    }
+
+    // the lexeme of a string leaves out both quotes
+    private int size(int index) {
+        return types[index] == TokenType.STRING.ordinal() ? lengths[index] - 2 : lengths[index];
+    }
+
+    // drops the tokens that were let go, and grows the arrays if that isn't enough
+    private void makeRoom() {
+        int drop = kept_from - discarded;
+        if (drop > 0) {
+            dropNumbers(drop);
+            int kept = count - drop;
+            move(drop, 0, kept);
+            Arrays.fill(lexemes, kept, count, null);
+            count = kept;
+            gap = count;
+            discarded = kept_from;
+            forgetLineMarks();
+        }
+
+        if (count == types.length) grow(count + 1);
+    }
+
+    // drops the numbers of the first "drop" tokens, which are about to go
+    private void dropNumbers(int drop) {
+        for (int i = drop - 1; i >= 0; i--) {
+            if (types[i] == NUMBER_TYPE) {
+                int first = (values[i] >>> 1) + 1;
+                System.arraycopy(numbers, first - numbers_discarded, numbers, 0, number_count - first);
+                numbers_discarded = first;
+                return;
+            }
+        }
+    }
+
+    // the tokens after the gap stay at the end of the arrays
+    private void grow(int needed) {
+        int capacity = Math.max(needed, Math.max(initial_capacity, types.length * 2));
+        int tail = count - gap;
+        int tail_at = gap + gap_size;
+        types = Arrays.copyOf(types, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        columns = Arrays.copyOf(columns, capacity);
+        values = Arrays.copyOf(values, capacity);
+        lexemes = Arrays.copyOf(lexemes, capacity);
+        if (tail > 0) {
+            move(tail_at, capacity - tail, tail);
+            Arrays.fill(lexemes, tail_at, Math.min(capacity - tail, tail_at + tail), null);
+        }
+        gap_size = capacity - count;
+    }
+
+    // Writes the tokens for the parse cache, which reads them back over the same source. Offsets
+    // and lines are written as the change from the token before, which is mostly a byte.
+    void write(ParseCache.Output out) {
+        if (discarded > 0) throw new IllegalStateException("Only a buffer with all its tokens can be written.");
+
+        out.writeByte(indent_tabs ? 1 : 0);
+        out.writeVarint(indent_width);
+        out.writeVarint(count);
+        int offset = 0;
+        int line = 0;
+        for (int index = 0; index < count; index++) {
+            int i = at(index);
+            out.writeByte(types[i]);
+            out.writeSigned(offset(index) - offset);
+            out.writeVarint(lengths[i]);
+            out.writeSigned(line(index) - line);
+            out.writeVarint(columns[i]);
+            if (types[i] == IDENTIFIER_TYPE) {
+                out.writeSymbol(values[i]);
+            } else if (types[i] == NUMBER_TYPE) {
+                out.writeLong(numbers[(values[i] >>> 1) - numbers_discarded]);
+                out.writeByte(values[i] & 1);
+            } else {
+                out.writeSigned(values[i]);
+            }
+            out.writeString(lexemes[i]);
+            offset = offset(index);
+            line = line(index);
+        }
+    }
+
+    static TokenBuffer read(ParseCache.Input in, SourceText source) {
+        boolean tabs = in.readByte() != 0;
+        int width = in.readVarint();
+        int count = in.readVarint();
+        TokenBuffer tokens = new TokenBuffer(source, Math.max(count, 1), in.symbols);
+        tokens.setIndentation(tabs, width);
+        int offset = 0;
+        int line = 0;
+        for (int i = 0; i < count; i++) {
+            byte type = in.readByte();
+            offset += in.readSigned();
+            int length = in.readVarint();
+            line += in.readSigned();
+            int column = in.readVarint();
+            int value;
+            if (type == IDENTIFIER_TYPE) {
+                value = in.readSymbol();
+            } else if (type == NUMBER_TYPE) {
+                long number = in.readLong();
+                value = tokens.number(number, in.readByte() != 0);
+            } else {
+                value = in.readSigned();
+            }
+            tokens.add(TYPES[type], offset, length, line, column, in.readString(), value);
+        }
+
+        return tokens;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[");
+
+        for (int index = discarded; index < size(); index++) {
+            if (index > discarded) builder.append(", ");
+            builder.append(type(index)).append(" ").append(lexeme(index)).append(" ")
+                    .append(line(index)).append(" ").append(column(index)).append(" ").append(length(index));
+        }
+
+        builder.append("]");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,39 @@
+package Kona;
+
+// Tokens as the parser reads them, by index from the start of the file. The parser never looks
+// more than two tokens behind or three ahead of where it is.
+interface TokenSource {
+    TokenType type(int index);
+
+    int length(int index);
+
+    int column(int index);
+
+    // levels of indentation of an indent token
+    int depth(int index);
+
+    // the value of a number literal, which is a double if isFloat and a long otherwise
+    boolean isFloat(int index);
+
+    long longValue(int index);
+
+    double doubleValue(int index);
+
+    Token token(int index);
+
+    // first NEWLINE or indentation token from index on, or the EOF token if there is none, which is
+    // where the parser looks for a statement to start over from after an error
+    default int nextLineMark(int index) {
+        while (true) {
+            TokenType type = type(index);
+            if (type == TokenType.NEWLINE || type == TokenType.TABS_INDENT || type == TokenType.SPACES_INDENT || type == TokenType.EOF) {
+                return index;
+            }
+            index++;
+        }
+    }
+
+    boolean indentTabs();
+
+    int indentWidth();
+}
@@ -0,0 +1,81 @@
+package Kona;
+
+// Tokens scanned as the parser asks for them instead of all before it starts. Only a window of
+// tokens around the parser's position is kept, so memory doesn't grow with the file.
+class TokenStream implements TokenSource {
+    // furthest the parser looks behind and ahead of its position
+    private static final int LOOK_BEHIND = 2;
+    private static final int LOOK_AHEAD = 3;
+
+    private final Scanner scanner;
+    private final TokenBuffer tokens;
+
+    TokenStream(Scanner scanner, TokenBuffer tokens) {
+        this.scanner = scanner;
+        this.tokens = tokens;
+    }
+
+    // Index of the token once it is scanned, or of EOF if the file ends before it. Asking for a
+    // token means the parser is at most LOOK_AHEAD before it, so anything further back than it
+    // looks behind from there can go.
+    private int at(int index) {
+        if (index < tokens.size()) return index;
+
+        tokens.release(index - LOOK_AHEAD - LOOK_BEHIND);
+        while (index >= tokens.size()) {
+            if (!scanner.scanNext()) return tokens.size() - 1;
+        }
+
+        return index;
+    }
+
+    @Override
+    public TokenType type(int index) {
+        return tokens.type(at(index));
+    }
+
+    @Override
+    public int length(int index) {
+        return tokens.length(at(index));
+    }
+
+    @Override
+    public int column(int index) {
+        return tokens.column(at(index));
+    }
+
+    @Override
+    public int depth(int index) {
+        return tokens.depth(at(index));
+    }
+
+    @Override
+    public boolean isFloat(int index) {
+        return tokens.isFloat(at(index));
+    }
+
+    @Override
+    public long longValue(int index) {
+        return tokens.longValue(at(index));
+    }
+
+    @Override
+    public double doubleValue(int index) {
+        return tokens.doubleValue(at(index));
+    }
+
+    @Override
+    public Token token(int index) {
+        return tokens.token(at(index));
+    }
+
+    @Override
+    public boolean indentTabs() {
+        return tokens.indentTabs();
+    }
+
+    @Override
+    public int indentWidth() {
+        return tokens.indentWidth();
+    }
+}
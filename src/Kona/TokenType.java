@@ -2,27 +2,36 @@ package Kona;
 
 enum TokenType {
     // Single-character tokens. todo:
-    LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,
-    COMMA, DOT, PLUS, STAR, SLASH, COLON, SEMICOLON, NEWLINE,
+    LEFT_PAREN("("), RIGHT_PAREN(")"), LEFT_BRACE("{"), RIGHT_BRACE("}"),
+    COMMA(","), DOT("."), PLUS("+"), STAR("*"), SLASH("/"), COLON(":"), SEMICOLON(";"), NEWLINE("\n"),
 
     // One or two character tokens. todo:
-    AMPERSAND, AND,
-    PIPE, OR,
-    BANG, BANG_EQUAL,
-    EQUAL, EQUAL_EQUAL,
-    LESS, LESS_EQUAL,
-    GREATER, GREATER_EQUAL,
-    MINUS, FIELD_EQUAL,
+    AMPERSAND("&"), AND("&&"),
+    PIPE("|"), OR("||"),
+    BANG("!"), BANG_EQUAL("!="),
+    EQUAL("="), EQUAL_EQUAL("=="),
+    LESS("<"), LESS_EQUAL("<="),
+    GREATER(">"), GREATER_EQUAL(">="),
+    MINUS("-"), FIELD_EQUAL("->"),
 
     // One or more character tokens
-    TABS_INDENT, SPACES_INDENT,
+    TABS_INDENT(null), SPACES_INDENT(null),
 
     // Literals.
-    IDENTIFIER, STRING, NUMBER,
+    IDENTIFIER(null), STRING(null), NUMBER(null),
 
     // Keywords todo:
-    TEMPLATE, DEF, CLASS, EXT, OF, REQ, OVERRIDE, PRIV, MUT, IF, ELIF, ELSE, TRUE, FALSE, FUN, NULL,
-    ECHO, RETURN, SUPER, SELF, FINAL, VAL, LET, WHILE, FOR, EACH, BLOCKSTMT,
+    TEMPLATE("template"), DEF("def"), CLASS("class"), EXT("ext"), OF("of"), REQ("req"), OVERRIDE("override"),
+    PRIV("priv"), MUT("mut"), IF("if"), ELIF("elif"), ELSE("else"), TRUE("true"), FALSE("false"), FUN("fun"),
+    NULL("null"), ECHO("echo"), RETURN("return"), SUPER("super"), SELF("self"), FINAL("final"), VAL("val"),
+    LET("let"), WHILE("while"), FOR("for"), EACH("each"), BLOCKSTMT("block"),
 
-    EOF
-}
\ No newline at end of file
+    EOF("");
+
+    // the lexeme every token of this type has, null if it comes from the source
+    final String text;
+
+    TokenType(String text) {
+        this.text = text;
+    }
+}
@@ -0,0 +1,76 @@
+package Kona;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// XXH64, a fast 64 bit hash with good spread that isn't meant to resist attacks, over bytes in a
+// buffer. Reads 8 bytes at a time and works on four lanes for input of 32 bytes or more.
+class XXHash64 {
+    private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME_3 = 0x165667B19E3779F9L;
+    private static final long PRIME_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME_5 = 0x27D4EB2F165667C5L;
+
+    // hashes the bytes from "from" up to "to", the buffer's position and limit are left alone
+    static long hash(ByteBuffer buffer, int from, int to, long seed) {
+        ByteBuffer bytes = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int length = to - from;
+        int i = from;
+        long hash;
+
+        if (length >= 32) {
+            long lane_1 = seed + PRIME_1 + PRIME_2;
+            long lane_2 = seed + PRIME_2;
+            long lane_3 = seed;
+            long lane_4 = seed - PRIME_1;
+            for (; i <= to - 32; i += 32) {
+                lane_1 = round(lane_1, bytes.getLong(i));
+                lane_2 = round(lane_2, bytes.getLong(i + 8));
+                lane_3 = round(lane_3, bytes.getLong(i + 16));
+                lane_4 = round(lane_4, bytes.getLong(i + 24));
+            }
+
+            hash = Long.rotateLeft(lane_1, 1) + Long.rotateLeft(lane_2, 7)
+                    + Long.rotateLeft(lane_3, 12) + Long.rotateLeft(lane_4, 18);
+            hash = merge(hash, lane_1);
+            hash = merge(hash, lane_2);
+            hash = merge(hash, lane_3);
+            hash = merge(hash, lane_4);
+        } else {
+            hash = seed + PRIME_5;
+        }
+
+        hash += length;
+        for (; i <= to - 8; i += 8) {
+            hash ^= round(0, bytes.getLong(i));
+            hash = Long.rotateLeft(hash, 27) * PRIME_1 + PRIME_4;
+        }
+        if (i <= to - 4) {
+            hash ^= (bytes.getInt(i) & 0xFFFFFFFFL) * PRIME_1;
+            hash = Long.rotateLeft(hash, 23) * PRIME_2 + PRIME_3;
+            i += 4;
+        }
+        for (; i < to; i++) {
+            hash ^= (bytes.get(i) & 0xFFL) * PRIME_5;
+            hash = Long.rotateLeft(hash, 11) * PRIME_1;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME_3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    private static long round(long lane, long input) {
+        lane += input * PRIME_2;
+        return Long.rotateLeft(lane, 31) * PRIME_1;
+    }
+
+    private static long merge(long hash, long lane) {
+        hash ^= round(0, lane);
+        return hash * PRIME_1 + PRIME_4;
+    }
+}
@@ -0,0 +1,111 @@
+package Kona;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+// Trees far deeper than the default nesting limit, and long chains of operators, which aren't
+// limited at all, have to go into an arena, come back out of it and be printed without a
+// StackOverflowError, and print the same whichever way they went.
+class DeepTreeTest {
+    private static int failed = 0;
+
+    public static void main(String[] args) throws IOException {
+        int n = 5000;
+        check("unary operators", "echo " + "-".repeat(n) + "a\n");
+        check("parentheses", "echo " + "(".repeat(n) + "a" + ")".repeat(n) + "\n");
+        check("assignments", "a = ".repeat(n) + "a\n");
+        check("instances", "echo " + "A{x -> ".repeat(n) + "a" + " }".repeat(n) + "\n");
+        check("blocks", NestingTest.blocks(1000));
+        check("additions", "echo a" + " + a".repeat(50000) + "\n");
+        check("logical operators", "echo a" + " && a".repeat(50000) + "\n");
+        check("calls", "echo a" + ".b".repeat(50000) + "\n");
+        checkKept("additions", "echo a" + " + a * -a".repeat(50000) + "\n");
+        checkKept("logical operators", "echo a" + " || a && a".repeat(50000) + "\n");
+
+        if (failed > 0) {
+            System.out.println(failed + " failed");
+            System.exit(1);
+        }
+        System.out.println("ok");
+    }
+
+    static void check(String name, String source) {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        CompilationSession session = new CompilationSession(null, new PrintStream(err, true, StandardCharsets.UTF_8),
+                ForkJoinPool.commonPool(), Diagnostics.LIMIT, Integer.MAX_VALUE, null);
+        try {
+            Stmt tree = new Parser(new Scanner(source, session).scanTokens(), session).parse();
+            if (session.hadError()) {
+                fail(name, err.toString(StandardCharsets.UTF_8).strip());
+                return;
+            }
+
+            String printed = new AstPrinter().print(tree);
+            AstArena flat = new Parser(new Scanner(source, session).scanTokens(), session).parseFlat(session.pool);
+            if (!new AstPrinter().print(flat.declarations(0)).equals(printed)) {
+                fail(name, "parsed flat it prints differently");
+            } else if (!new AstPrinter().print(AstArena.of(tree).stmt(0)).equals(printed)) {
+                fail(name, "out of an arena it prints differently");
+            } else if (!new AstPrinter().print(AstArena.moved(tree, 0, 0)).equals(printed)) {
+                fail(name, "moved it prints differently");
+            }
+        } catch (StackOverflowError error) {
+            fail(name, "StackOverflowError");
+        }
+    }
+
+    // The chain again after a reparse that moves it a line down, and out of the parse cache.
+    static void checkKept(String name, String chain) throws IOException {
+        String source = chain + "echo b\n";
+        String edited = "echo c\n" + source;
+        try {
+            CompilationSession session = quiet();
+            TokenBuffer tokens = new Scanner(source, session).scanTokens();
+            Parser parser = new Parser(tokens, session);
+            parser.parse();
+            TokenBuffer.Change change = Scanner.rescan(tokens, edited, new Edit(0, 0, "echo c\n"), session);
+            String reparsed = new AstPrinter().print(parser.reparse(change));
+            String fresh = new AstPrinter().print(new Parser(new Scanner(edited, session).scanTokens(), session).parse());
+            if (session.hadError() || !reparsed.equals(fresh)) fail(name, "reparsed it prints differently");
+        } catch (StackOverflowError error) {
+            fail(name, "StackOverflowError in a reparse");
+        }
+
+        Path directory = Files.createTempDirectory("kona-cache");
+        try {
+            ByteBuffer bytes = ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8));
+            String[] printed = new String[2];
+            for (int i = 0; i < 2; i++) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                CompilationSession session = new CompilationSession(new PrintStream(out, true, StandardCharsets.UTF_8), System.err,
+                        ForkJoinPool.commonPool(), Diagnostics.LIMIT, Integer.MAX_VALUE, new ParseCache(directory, 1));
+                session.compile(bytes.duplicate());
+                printed[i] = out.toString(StandardCharsets.UTF_8);
+            }
+            if (!printed[0].equals(printed[1])) fail(name, "out of the cache it prints differently");
+        } catch (StackOverflowError error) {
+            fail(name, "StackOverflowError in the cache");
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(file);
+            }
+        }
+    }
+
+    static CompilationSession quiet() {
+        return new CompilationSession(null, System.err, ForkJoinPool.commonPool(), Diagnostics.LIMIT, Integer.MAX_VALUE, null);
+    }
+
+    static void fail(String name, String why) {
+        failed++;
+        System.out.println("FAIL " + name + ": " + why);
+    }
+}
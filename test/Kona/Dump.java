@@ -0,0 +1,120 @@
+package Kona;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+
+// Tokens and trees written out in full, to tell whether two of them are the same. Tokens are
+// compared by what they hold and not by their ids, which depend on the order names were seen in.
+class Dump {
+    static String tokens(TokenBuffer tokens) {
+        StringBuilder dump = new StringBuilder();
+        dump.append("indentation ").append(tokens.indentTabs() ? "tabs" : "spaces").append(' ').append(tokens.indentWidth())
+                .append(" from ").append(tokens.firstIndentOffset()).append('\n');
+        for (int i = 0; i < tokens.size(); i++) {
+            TokenType type = tokens.type(i);
+            dump.append(i).append(": ").append(type).append(' ').append(tokens.token(i).lexeme())
+                    .append(" at ").append(tokens.offset(i)).append(' ').append(tokens.line(i)).append(':').append(tokens.column(i))
+                    .append(" length ").append(tokens.length(i));
+            if (type == TokenType.SPACES_INDENT || type == TokenType.TABS_INDENT) dump.append(" depth ").append(tokens.depth(i));
+            if (type == TokenType.NUMBER) dump.append(" value ").append(tokens.isFloat(i) ? tokens.doubleValue(i) : tokens.longValue(i));
+            dump.append('\n');
+        }
+
+        return dump.toString();
+    }
+
+    // every node of the tree, missing ones as well, with its token and where its children are
+    static String tree(Stmt tree) {
+        return tree(AstArena.of(tree));
+    }
+
+    static String tree(AstArena arena) {
+        StringBuilder dump = new StringBuilder();
+        for (int node = 0; node < arena.size(); node++) {
+            AstArena.Kind kind = arena.kind(node);
+            dump.append(node).append(": ").append(kind);
+            if (kind == AstArena.Kind.STRING) {
+                dump.append(' ').append(arena.string(node));
+            } else {
+                Token token = arena.token(node);
+                if (token != null) {
+                    dump.append(' ').append(token.type).append(' ').append(token.lexeme())
+                            .append(" at ").append(token.line).append(':').append(token.column);
+                }
+            }
+            if (kind == AstArena.Kind.LITERAL && arena.token(node).type == TokenType.NUMBER) dump.append(" value ").append(arena.longValue(node));
+            if (kind == AstArena.Kind.FLOAT_LITERAL) dump.append(" value ").append(arena.doubleValue(node));
+            dump.append(" child ").append(arena.firstChild(node)).append(" next ").append(arena.nextSibling(node)).append('\n');
+        }
+
+        return dump.toString();
+    }
+
+    // a session that prints nothing, for sources whose errors are expected
+    static CompilationSession quiet() {
+        return session(OutputStream.nullOutputStream());
+    }
+
+    // a session that writes its diagnostics to err
+    static CompilationSession session(OutputStream err) {
+        return new CompilationSession(null, new PrintStream(err, true, StandardCharsets.UTF_8), ForkJoinPool.commonPool(),
+                Diagnostics.LIMIT, Parser.MAX_DEPTH, null);
+    }
+
+    // the line where two dumps first differ, for a failure to show
+    static String firstDifference(String expected, String actual) {
+        String[] a = expected.split("\n", -1);
+        String[] b = actual.split("\n", -1);
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            if (!a[i].equals(b[i])) return "expected \"" + a[i] + "\" got \"" + b[i] + "\"";
+        }
+
+        return a.length + " lines expected, got " + b.length;
+    }
+
+    // Kona with the things a scanner has to carry across lines: block comments, strings over
+    // more than one line, indentation, numbers and names that aren't ASCII in strings.
+    static final String SAMPLE = """
+            #[ a block comment
+               over lines, with "quotes" and marks ]#
+            mut class Car ext Auto of Tmpl, Other
+               req A, B
+               wheel,
+               priv mut axle,
+               mut mirror
+               override priv mut fun drive: one, two
+                  val number = one
+                  return wheel + mirror * 3.14 - -x / !y
+               fun velocity: speed
+                  while speed > 0
+                     let speed = speed - 1
+                  for items each item, i
+                     echo item
+                  return speed * 4
+
+            template Saturn ext Other
+               def axle,
+               wheel
+               fun add: apple, banana
+                  return apple
+               def fun mult: left, right
+                  return left * right
+
+            # a line comment
+            val jetta = Car { wheel -> "expensive", axle -> 12345678901, extension -> Car { x -> 1 } }
+            echo "a string
+            over two lines, één ✓"
+            fun choose: n
+               if n == 0
+                  return 0.5
+               if n == 1
+                  return (choose: n - 1) + 2
+               echo a || b && c == d != e < f <= g > h >= i
+               return n
+            let b = c
+            a.b = c = d
+            echo choose: 2
+            """;
+}
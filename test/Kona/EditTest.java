@@ -0,0 +1,150 @@
+package Kona;
+
+import java.util.List;
+import java.util.Random;
+
+// Scanner.rescan and Parser.reparse have to leave the same tokens and trees as scanning and
+// parsing the edited source from scratch, whatever the edit: inside strings and block comments,
+// opening or closing them, changing indentation, joining and splitting lines. Edits are applied
+// one after another to the same tokens and parser, the way an editor makes them.
+class EditTest {
+    private static int failed = 0;
+
+    public static void main(String[] args) {
+        String sample = Dump.SAMPLE;
+        edits("in a string", sample, List.of(
+                insert(sample, "expensive", 3, "ive"),
+                insert(sample, "over two lines", 0, "still "),
+                insert(sample, "over two lines", 0, "\"\n"),
+                remove(sample, "\"expensive\"", 0, 1)));
+        edits("in a block comment", sample, List.of(
+                insert(sample, "over lines", 0, "more\n"),
+                insert(sample, "over lines", 0, "]# echo out\n#[ "),
+                remove(sample, "]#", 0, 2),
+                insert(sample, "a line comment", 0, "#[ ")));
+        edits("opening a block comment", sample, List.of(insert(sample, "fun choose", 0, "#[ ")));
+        edits("opening a string", sample, List.of(insert(sample, "echo choose", 5, "\"")));
+        edits("indentation", sample, List.of(
+                insert(sample, "      val number", 0, "   "),
+                remove(sample, "      val number", 0, 3),
+                insert(sample, "   wheel,", 0, "\t"),
+                remove(sample, "   req A, B", 0, 1),
+                insert(sample, "echo choose", 0, "   ")));
+        edits("the first indented line", sample, List.of(
+                remove(sample, "   req A, B", 0, 1),
+                insert(sample, "  req A, B", 0, " "),
+                insert(sample, "   req A, B", 0, "   ")));
+        edits("lines", sample, List.of(
+                remove(sample, "\n   wheel,", 0, 1),
+                insert(sample, "template Saturn", 0, "fun f: x\n   return x\n"),
+                insert(sample, "let b = c", 0, "if b\n"),
+                remove(sample, "let b = c\n", 0, 10)));
+        random(1, 400);
+        random(2, 400);
+        reuse();
+
+        if (failed > 0) {
+            System.out.println(failed + " failed");
+            System.exit(1);
+        }
+        System.out.println("ok");
+    }
+
+    // "inserted" at "at" chars into the first "anchor" in the source
+    static Edit insert(String source, String anchor, int at, String inserted) {
+        return new Edit(source.indexOf(anchor) + at, 0, inserted);
+    }
+
+    static Edit remove(String source, String anchor, int at, int removed) {
+        return new Edit(source.indexOf(anchor) + at, removed, "");
+    }
+
+    static String apply(String source, Edit edit) {
+        return source.substring(0, edit.offset) + edit.inserted + source.substring(edit.offset + edit.removed);
+    }
+
+    // Each edit made to the source and then undone, on the same tokens and parser all along.
+    static void edits(String name, String source, List<Edit> edits) {
+        Edited edited = new Edited(source);
+        for (Edit edit : edits) {
+            if (edit.offset < 0) throw new IllegalArgumentException(name + ": no such place in the source");
+            String before = edited.source;
+            if (!edited.apply(edit, name)) return;
+            if (!edited.apply(new Edit(edit.offset, edit.inserted.length(), before.substring(edit.offset, edit.offset + edit.removed)), name + ", undone")) return;
+        }
+    }
+
+    // random edits of the kinds that change how the lines around them scan
+    static void random(long seed, int count) {
+        String[] pieces = { "\n", "   ", "\t", "#[", "]#", "\"", "#", "echo a", "if x\n", "(", ")", "{", "1.5", "é", "x" };
+        Random random = new Random(seed);
+        Edited edited = new Edited(Dump.SAMPLE);
+        for (int i = 0; i < count; i++) {
+            String source = edited.source;
+            int offset = random.nextInt(source.length() + 1);
+            int removed = Math.min(random.nextInt(4) == 0 ? random.nextInt(12) : 0, source.length() - offset);
+            String inserted = random.nextInt(5) == 0 ? "" : pieces[random.nextInt(pieces.length)];
+            if (!edited.apply(new Edit(offset, removed, inserted), "random " + seed + ", edit " + i)) return;
+        }
+    }
+
+    // An edit that moves nothing keeps the trees of the declarations it isn't near.
+    static void reuse() {
+        CompilationSession session = Dump.quiet();
+        TokenBuffer tokens = new Scanner(Dump.SAMPLE, session).scanTokens();
+        Parser parser = new Parser(tokens, session);
+        Stmt.Declarations before = (Stmt.Declarations) parser.parse();
+        Edit edit = new Edit(Dump.SAMPLE.indexOf("return n") + 7, 1, "m");
+        Stmt.Declarations after = (Stmt.Declarations) parser.reparse(Scanner.rescan(tokens, apply(Dump.SAMPLE, edit), edit, session));
+
+        // the edit is in "fun choose", and "let b = c" after it starts too close to the edit to be kept
+        String kept = "";
+        for (int i = 0; i < before.declarations.size(); i++) {
+            kept += before.declarations.get(i) == after.declarations.get(i) ? "k" : "-";
+        }
+        if (!kept.equals("kkkk--kk")) {
+            failed++;
+            System.out.println("FAIL reuse: kept " + kept);
+        }
+    }
+
+    // A source with its tokens and parser, edited in place and checked against a fresh scan and
+    // parse after every edit.
+    static class Edited {
+        String source;
+        final CompilationSession session = Dump.quiet();
+        final TokenBuffer tokens;
+        final Parser parser;
+
+        Edited(String source) {
+            this.source = source;
+            tokens = new Scanner(source, session).scanTokens();
+            parser = new Parser(tokens, session);
+            parser.parse();
+        }
+
+        boolean apply(Edit edit, String name) {
+            source = EditTest.apply(source, edit);
+            String reparsed = Dump.tree(parser.reparse(Scanner.rescan(tokens, source, edit, session)));
+
+            CompilationSession fresh_session = Dump.quiet();
+            TokenBuffer fresh = new Scanner(source, fresh_session).scanTokens();
+            String expected_tokens = Dump.tokens(fresh);
+            String expected_tree = Dump.tree(new Parser(fresh, fresh_session).parse());
+
+            String rescanned = Dump.tokens(tokens);
+            if (!rescanned.equals(expected_tokens)) {
+                failed++;
+                System.out.println("FAIL " + name + ": rescanned " + Dump.firstDifference(expected_tokens, rescanned));
+                return false;
+            }
+            if (!reparsed.equals(expected_tree)) {
+                failed++;
+                System.out.println("FAIL " + name + ": reparsed " + Dump.firstDifference(expected_tree, reparsed));
+                return false;
+            }
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package Kona;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+
+// A line indented by other than a multiple of the file's unit gets the one error saying so and
+// then parses as if it were at the nearest level, without errors about its block.
+class IndentationTest {
+    private static int failed = 0;
+
+    public static void main(String[] args) {
+        check("under a level", "fun f: x\n   echo a\nif x\n  echo b\n  echo c\necho d\n",
+                "fun f: x\n   echo a\nif x\n   echo b\n   echo c\necho d\n", 2);
+        check("over a level", "fun f: x\n    echo a\n    if x\n       echo b\n       echo c\n    echo d\n",
+                "fun f: x\n    echo a\n    if x\n        echo b\n        echo c\n    echo d\n", 2);
+        check("out of a block", "fun f: x\n   if x\n      echo a\n    echo b\necho c\n",
+                "fun f: x\n   if x\n      echo a\n   echo b\necho c\n", 1);
+        check("half a level", "if x\n    if y\n      echo a\n    echo b\n",
+                "if x\n    if y\n        echo a\n    echo b\n", 1);
+
+        if (failed > 0) {
+            System.out.println(failed + " failed");
+            System.exit(1);
+        }
+        System.out.println("ok");
+    }
+
+    // "uneven" has to give "errors" indentation errors and nothing else, and the tree of "even"
+    static void check(String name, String uneven, String even, int errors) {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        CompilationSession session = new CompilationSession(null, new PrintStream(err, true, StandardCharsets.UTF_8),
+                ForkJoinPool.commonPool(), Diagnostics.LIMIT, Parser.MAX_DEPTH, null);
+        Stmt tree = new Parser(new Scanner(uneven, session).scanTokens(), session).parse();
+
+        String[] lines = err.toString(StandardCharsets.UTF_8).strip().split("\n");
+        int indentation = 0;
+        for (String line : lines) {
+            if (line.contains("Expect indentation in multiples of")) {
+                indentation++;
+            } else {
+                failed++;
+                System.out.println("FAIL " + name + ": " + line);
+                return;
+            }
+        }
+        if (indentation != errors) {
+            failed++;
+            System.out.println("FAIL " + name + ": " + indentation + " indentation errors instead of " + errors);
+            return;
+        }
+
+        CompilationSession clean = new CompilationSession(null, System.err);
+        String expected = new AstPrinter().print(new Parser(new Scanner(even, clean).scanTokens(), clean).parse());
+        if (clean.hadError() || !new AstPrinter().print(tree).equals(expected)) {
+            failed++;
+            System.out.println("FAIL " + name + ": doesn't parse like the evenly indented source");
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package Kona;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+
+// Deep nesting has to end in the nesting error, not in a StackOverflowError, whatever kind of
+// nesting it is: parentheses, unary operators, chains of assignments or blocks. Nesting under the
+// limit has to parse without errors.
+class NestingTest {
+    private static int failed = 0;
+
+    public static void main(String[] args) {
+        for (int n : new int[] {150, 300, 2000}) {
+            boolean deep = n > Parser.MAX_DEPTH;
+            expect("parentheses " + n, "echo " + "(".repeat(n) + "a" + ")".repeat(n) + "\n", deep);
+            expect("unary operators " + n, "echo " + "-".repeat(n) + "a\n", deep);
+            expect("negations " + n, "echo " + "!".repeat(n) + "a\n", deep);
+            expect("assignments " + n, "a = ".repeat(n) + "a\n", deep);
+            // an operator and a parenthesis are two levels
+            expect("mixed " + n, "echo " + "-(".repeat(n / 2) + "a" + ")".repeat(n / 2) + "\n", deep);
+            expect("blocks " + n, blocks(n), deep);
+        }
+
+        if (failed > 0) {
+            System.out.println(failed + " failed");
+            System.exit(1);
+        }
+        System.out.println("ok");
+    }
+
+    static String blocks(int n) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < n; i++) source.append("   ".repeat(i)).append("if a\n");
+        return source.append("   ".repeat(n)).append("echo a\n").toString();
+    }
+
+    // compiles "source" without printing it, expecting the nesting error exactly when "deep"
+    static void expect(String name, String source, boolean deep) {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        CompilationSession session = new CompilationSession(null, new PrintStream(err, true, StandardCharsets.UTF_8),
+                ForkJoinPool.commonPool(), Diagnostics.LIMIT, Parser.MAX_DEPTH, null);
+        String errors;
+        try {
+            session.compile(new Scanner(source, session));
+            errors = err.toString(StandardCharsets.UTF_8);
+        } catch (StackOverflowError error) {
+            errors = "StackOverflowError";
+        }
+
+        boolean nesting = errors.contains("Nesting is deeper than " + Parser.MAX_DEPTH + " levels.");
+        boolean ok = deep ? nesting && !errors.contains("StackOverflowError") : errors.isEmpty();
+        if (!ok) {
+            failed++;
+            System.out.println("FAIL " + name + ": " + (errors.isEmpty() ? "no errors" : errors.strip()));
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package Kona;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+// Tokens and trees out of the parse cache have to be the same as scanning and parsing the source
+// again, read into a symbol table of their own. An entry of another build, another max depth or
+// other bytes must never be taken, nor one that was cut short or changed on disk.
+class ParseCacheTest {
+    private static final long BUILD = 0x6b6f6e61L;
+    private static int failed = 0;
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("kona-cache");
+        try {
+            roundTrip("sample", Dump.SAMPLE, directory);
+            roundTrip("parts", PartsTest.program(200, false), directory);
+            misses(directory);
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(file);
+            }
+        }
+
+        if (failed > 0) {
+            System.out.println(failed + " failed");
+            System.exit(1);
+        }
+        System.out.println("ok");
+    }
+
+    static ByteBuffer bytes(String source) {
+        return ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // scans and parses the source the way a compile does and keeps it
+    static void put(ParseCache cache, ByteBuffer source, int max_depth) {
+        CompilationSession session = Dump.quiet();
+        TokenBuffer tokens = new ByteScanner(source.duplicate(), session).scanTokens(ForkJoinPool.commonPool());
+        AstArena tree = new Parser(tokens, session).parseFlat(ForkJoinPool.commonPool());
+        if (session.hadError()) throw new IllegalArgumentException("only sources without errors are kept");
+        cache.put(source.duplicate(), max_depth, tokens, tree);
+    }
+
+    static ParseCache.Entry get(ParseCache cache, ByteBuffer source, int max_depth) {
+        CompilationSession session = Dump.quiet();
+        return cache.get(source.duplicate(), max_depth, session.symbols, new ByteScanner(source.duplicate(), session));
+    }
+
+    static void roundTrip(String name, String source, Path directory) {
+        ByteBuffer bytes = bytes(source);
+        ParseCache cache = new ParseCache(directory, BUILD);
+        put(cache, bytes, Parser.MAX_DEPTH);
+
+        CompilationSession session = Dump.quiet();
+        TokenBuffer tokens = new ByteScanner(bytes.duplicate(), session).scanTokens();
+        String expected_tokens = Dump.tokens(tokens);
+        String expected_tree = Dump.tree(new Parser(tokens, session).parse());
+
+        // read into a symbol table that already has other names, so the ids differ
+        CompilationSession reading = Dump.quiet();
+        new Scanner("zebra yak xylophone jetta wheel Car", reading).scanTokens();
+        ParseCache.Entry entry = cache.get(bytes.duplicate(), Parser.MAX_DEPTH, reading.symbols, new ByteScanner(bytes.duplicate(), reading));
+        if (entry == null) {
+            fail(name, "not found in the cache");
+            return;
+        }
+        same(name + ", tokens", expected_tokens, Dump.tokens(entry.tokens));
+        same(name + ", tree", expected_tree, Dump.tree(entry.tree));
+        same(name + ", printed", new AstPrinter().print(new Parser(tokens, session).parse()), new AstPrinter().print(entry.tree));
+
+        // without source text to read the tokens over, only the tree
+        ParseCache.Entry tree_only = cache.get(bytes.duplicate(), Parser.MAX_DEPTH, new Symbols(), null);
+        if (tree_only == null || tree_only.tokens != null) {
+            fail(name, "tree only: " + (tree_only == null ? "not found" : "tokens read"));
+        } else {
+            same(name + ", tree only", expected_tree, Dump.tree(tree_only.tree));
+        }
+    }
+
+    static void misses(Path directory) throws IOException {
+        Path entries = directory.resolve("misses");
+        ParseCache cache = new ParseCache(entries, BUILD);
+        ByteBuffer source = bytes(Dump.SAMPLE);
+        put(cache, source, Parser.MAX_DEPTH);
+
+        if (get(new ParseCache(entries, BUILD + 1), source, Parser.MAX_DEPTH) != null) fail("another build", "taken");
+        if (get(cache, source, Parser.MAX_DEPTH - 1) != null) fail("another max depth", "taken");
+        if (get(cache, bytes(Dump.SAMPLE.replace("jetta", "jettb")), Parser.MAX_DEPTH) != null) fail("other bytes", "taken");
+
+        // another build keeps entries of its own beside the first one's
+        put(new ParseCache(entries, BUILD + 1), source, Parser.MAX_DEPTH);
+        if (get(new ParseCache(entries, BUILD + 1), source, Parser.MAX_DEPTH) == null) fail("another build", "its own entry not found");
+        if (get(cache, source, Parser.MAX_DEPTH) == null) fail("another build", "replaced the first build's entry");
+
+        // sources with errors aren't kept by a compile
+        Path compiled = directory.resolve("errors");
+        CompilationSession session = new CompilationSession(null, new PrintStream(OutputStream.nullOutputStream()), ForkJoinPool.commonPool(),
+                Diagnostics.LIMIT, Parser.MAX_DEPTH, new ParseCache(compiled, BUILD));
+        session.compile(bytes("fun broken:\n   return )\n"));
+        if (Files.exists(compiled)) fail("errors", "kept");
+
+        // each of the two entries changed and cut short, leaving only the other one to be found
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(entries)) {
+            files = walk.filter(Files::isRegularFile).toList();
+        }
+        for (Path file : files) {
+            byte[] entry = Files.readAllBytes(file);
+            byte[] changed = entry.clone();
+            changed[changed.length / 2] ^= 1;
+            Files.write(file, changed);
+            if (found(entries, source) != 1) fail("changed", "taken");
+
+            Files.write(file, Arrays.copyOf(entry, entry.length - 1));
+            if (found(entries, source) != 1) fail("cut short", "taken");
+            Files.write(file, entry);
+        }
+        if (found(entries, source) != 2) fail("restored", "not found");
+    }
+
+    // how many of the two builds find their entry of the source
+    static int found(Path entries, ByteBuffer source) {
+        int found = 0;
+        for (long build = BUILD; build <= BUILD + 1; build++) {
+            if (get(new ParseCache(entries, build), source, Parser.MAX_DEPTH) != null) found++;
+        }
+
+        return found;
+    }
+
+    static void same(String name, String expected, String actual) {
+        if (!expected.equals(actual)) fail(name, Dump.firstDifference(expected, actual));
+    }
+
+    static void fail(String name, String why) {
+        failed++;
+        System.out.println("FAIL " + name + ": " + why);
+    }
+}
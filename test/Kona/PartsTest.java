@@ -0,0 +1,89 @@
+package Kona;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+
+// Scanning and parsing in parts on a pool has to give the same tokens, trees and diagnostics as
+// doing it in one go. The sources are big enough to be cut, and have what the cuts must not land
+// in: strings and block comments with lines in them that start like a declaration does.
+class PartsTest {
+    private static int failed = 0;
+
+    public static void main(String[] args) {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            String source = program(200, false);
+            compare("clean", source, pool);
+            compare("with errors", program(200, true), pool);
+            compare("scan error", source + "echo 1 @ 2\n" + program(60, false), pool);
+            compare("unterminated comment", source + "#[ never closed\nfun x\n" + program(60, false), pool);
+            compare("unterminated string", source + "echo \"never closed\nfun x\n" + program(60, false), pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        if (failed > 0) {
+            System.out.println(failed + " failed");
+            System.exit(1);
+        }
+        System.out.println("ok");
+    }
+
+    // numbered copies of the sample, each followed by a string or a comment about as long as it
+    // made of lines that start like a declaration does, so the cuts have to pass over some of
+    // them; and when broken, some with a declaration that doesn't parse
+    static String program(int copies, boolean broken) {
+        StringBuilder program = new StringBuilder();
+        String lines = "fun not_a_fun: x\n   return x\nclass NotAClass\n".repeat(24);
+        for (int i = 0; i < copies; i++) {
+            program.append(Dump.SAMPLE.replace("Car", "Car" + i).replace("choose", "choose" + i));
+            program.append(i % 2 == 0 ? "echo \"" + lines + "\"\n" : "#[\n" + lines + "]#\n");
+            if (broken && i % 100 == 61) program.append("fun broken:\n   return )\n");
+        }
+
+        return program.toString();
+    }
+
+    static void compare(String name, String source, ForkJoinPool pool) {
+        if (source.length() < 300_000) throw new IllegalArgumentException(name + ": too small to be cut");
+
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        TokenBuffer tokens = new Scanner(source, Dump.session(err)).scanTokens();
+        String expected_tokens = Dump.tokens(tokens);
+        String expected_scan_errors = err.toString(StandardCharsets.UTF_8);
+        // the parse errors apart, so the ones from scanning don't count toward their limit
+        err = new ByteArrayOutputStream();
+        String expected_tree = Dump.tree(new Parser(tokens, Dump.session(err)).parse());
+        String expected_parse_errors = err.toString(StandardCharsets.UTF_8);
+
+        err = new ByteArrayOutputStream();
+        String scanned = Dump.tokens(new Scanner(source, Dump.session(err)).scanTokens(pool));
+        same(name + ", scanned in parts", expected_tokens, scanned);
+        same(name + ", scan errors in parts", expected_scan_errors, err.toString(StandardCharsets.UTF_8));
+
+        byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        err = new ByteArrayOutputStream();
+        String bytes_scanned = Dump.tokens(new ByteScanner(ByteBuffer.wrap(bytes), Dump.session(err)).scanTokens());
+        String bytes_errors = err.toString(StandardCharsets.UTF_8);
+        err = new ByteArrayOutputStream();
+        same(name + ", bytes scanned in parts", bytes_scanned, Dump.tokens(new ByteScanner(ByteBuffer.wrap(bytes), Dump.session(err)).scanTokens(pool)));
+        same(name + ", byte scan errors in parts", bytes_errors, err.toString(StandardCharsets.UTF_8));
+
+        err = new ByteArrayOutputStream();
+        same(name + ", parsed in parts", expected_tree, Dump.tree(new Parser(tokens, Dump.session(err)).parse(pool)));
+        same(name + ", parse errors in parts", expected_parse_errors, err.toString(StandardCharsets.UTF_8));
+
+        err = new ByteArrayOutputStream();
+        same(name + ", parsed flat in parts", expected_tree, Dump.tree(new Parser(tokens, Dump.session(err)).parseFlat(pool)));
+        same(name + ", flat parse errors in parts", expected_parse_errors, err.toString(StandardCharsets.UTF_8));
+    }
+
+    static void same(String name, String expected, String actual) {
+        if (!expected.equals(actual)) {
+            failed++;
+            System.out.println("FAIL " + name + ": " + Dump.firstDifference(expected, actual));
+        }
+    }
+}